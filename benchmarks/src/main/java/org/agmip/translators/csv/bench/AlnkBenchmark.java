@@ -0,0 +1,79 @@
+package org.agmip.translators.csv.bench;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.agmip.translators.csv.AlnkInput;
+import org.agmip.translators.csv.AlnkOutput;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks of reading and writing linkage (ALNK) files.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class AlnkBenchmark {
+
+    @Param({"10000"})
+    public int experiments;
+
+    private File dir, alnk, outputDir;
+    private HashMap<String, Object> data;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        dir = Files.createTempDirectory("alnk-bench").toFile();
+        alnk = SyntheticData.alnk(dir, "Linkage.alnk", experiments);
+        outputDir = new File(dir, "output");
+        ArrayList<HashMap<String, String>> exps = new ArrayList<HashMap<String, String>>();
+        for (int e = 1; e <= experiments; e++) {
+            HashMap<String, String> exp = new HashMap<String, String>();
+            exp.put("exname", String.format("EXP%05d_%d__%d", e / 3, e % 3 + 1, e % 2 + 1));
+            exp.put("seasonal_dome_applied", "Y");
+            exp.put("field_overlay", "REG-1----FIELD");
+            exp.put("seasonal_strategy", "REG-1----SEASONAL");
+            exps.add(exp);
+        }
+        data = new HashMap<String, Object>();
+        data.put("experiments", exps);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        SyntheticData.delete(dir);
+    }
+
+    @Benchmark
+    public Map readAlnk() throws Exception {
+        return new AlnkInput().readFile(alnk.getPath());
+    }
+
+    @Benchmark
+    public long writeAlnk() throws Exception {
+        AlnkOutput writer = new AlnkOutput();
+        writer.writeFile(outputDir.getPath(), data);
+        File f = writer.getAlnkFile();
+        long len = f.length();
+        f.delete();
+        return len;
+    }
+}
@@ -0,0 +1,26 @@
+package org.agmip.translators.csv.bench;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks with the usual JMH command line options, and always
+ * adds the GC profiler so the allocation rate is reported next to the
+ * throughput.
+ *
+ * For example, "java -jar target/benchmarks.jar CSVInputBenchmark -p days=10950"
+ * reads 30 years of daily weather per station.
+ */
+public class BenchmarkMain {
+
+    public static void main(String[] args) throws Exception {
+        Options opt = new OptionsBuilder()
+                .parent(new CommandLineOptions(args))
+                .addProfiler(GCProfiler.class)
+                .build();
+        new Runner(opt).run();
+    }
+}
@@ -0,0 +1,81 @@
+package org.agmip.translators.csv.bench;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.agmip.translators.csv.CSVInput;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks of {@link CSVInput#readFile(String)} on summary, series and
+ * event rows, with "," and ";" separated files.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CSVInputBenchmark {
+
+    @Param({"10"})
+    public int stations;
+    @Param({"3650"})
+    public int days;
+    @Param({"200"})
+    public int experiments;
+    @Param({"10"})
+    public int events;
+    @Param({",", ";"})
+    public String separator;
+
+    private File dir, weather, experiment, soil, zip;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        char sep = separator.charAt(0);
+        dir = Files.createTempDirectory("csv-bench").toFile();
+        weather = SyntheticData.weatherCsv(dir, "weather.csv", stations, days, sep);
+        experiment = SyntheticData.experimentCsv(dir, "experiment.csv", experiments, events, sep);
+        soil = SyntheticData.soilCsv(dir, "soil.csv", stations, 10, sep);
+        zip = SyntheticData.zip(dir, "bundle.zip", weather, experiment, soil);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        SyntheticData.delete(dir);
+    }
+
+    @Benchmark
+    public Map readWeather() throws Exception {
+        return new CSVInput().readFile(weather.getPath());
+    }
+
+    @Benchmark
+    public Map readExperiments() throws Exception {
+        return new CSVInput().readFile(experiment.getPath());
+    }
+
+    @Benchmark
+    public Map readSoils() throws Exception {
+        return new CSVInput().readFile(soil.getPath());
+    }
+
+    @Benchmark
+    public Map readZip() throws Exception {
+        return new CSVInput().readFile(zip.getPath());
+    }
+}
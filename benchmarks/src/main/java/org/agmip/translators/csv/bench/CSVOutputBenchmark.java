@@ -0,0 +1,67 @@
+package org.agmip.translators.csv.bench;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.agmip.translators.csv.CSVInput;
+import org.agmip.translators.csv.CSVOutput;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmark of {@link CSVOutput#writeFile(String, Map)}. The written files
+ * are deleted within the measured call, so every call writes the same names.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CSVOutputBenchmark {
+
+    @Param({"10"})
+    public int stations;
+    @Param({"3650"})
+    public int days;
+
+    private File dir, outputDir;
+    private Map data;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        dir = Files.createTempDirectory("csv-bench").toFile();
+        File weather = SyntheticData.weatherCsv(dir, "weather.csv", stations, days, ',');
+        data = new CSVInput().readFile(weather.getPath());
+        outputDir = new File(dir, "output");
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        SyntheticData.delete(dir);
+    }
+
+    @Benchmark
+    public int writeWeather() throws Exception {
+        CSVOutput writer = new CSVOutput();
+        writer.writeFile(outputDir.getPath(), data);
+        int count = 0;
+        for (File f : writer.getOutputWthFiles()) {
+            f.delete();
+            count++;
+        }
+        return count;
+    }
+}
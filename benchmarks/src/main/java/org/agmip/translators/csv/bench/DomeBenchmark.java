@@ -0,0 +1,66 @@
+package org.agmip.translators.csv.bench;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.agmip.translators.csv.BatchInput;
+import org.agmip.translators.csv.DomeInput;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks of reading DOME and batch DOME files.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DomeBenchmark {
+
+    @Param({"1000"})
+    public int rules;
+    @Param({"10000"})
+    public int links;
+    @Param({"20"})
+    public int groups;
+    @Param({"200"})
+    public int runs;
+
+    private File dir, dome, batch;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        dir = Files.createTempDirectory("dome-bench").toFile();
+        dome = SyntheticData.dome(dir, "dome.csv", rules, links);
+        batch = SyntheticData.batch(dir, "batch.csv", groups, runs, 3);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        SyntheticData.delete(dir);
+    }
+
+    @Benchmark
+    public Map readDome() throws Exception {
+        return new DomeInput().readFile(dome.getPath());
+    }
+
+    @Benchmark
+    public Map readBatch() throws Exception {
+        return new BatchInput().readFile(batch.getPath());
+    }
+}
@@ -0,0 +1,231 @@
+package org.agmip.translators.csv.bench;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Locale;
+import java.util.Random;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Generates synthetic ACE CSV inputs of configurable size for the
+ * benchmarks. The values are pseudo random with a fixed seed, so every run
+ * reads the same files.
+ */
+public final class SyntheticData {
+
+    private static final int[] DAYS_OF_MONTH = {31, 28, 31, 30, 31, 30, 31, 31, 30, 31, 30, 31};
+
+    private SyntheticData() {
+    }
+
+    /**
+     * Weather file with one summary row and a daily series per station.
+     */
+    public static File weatherCsv(File dir, String name, int stations, int days, char sep) throws IOException {
+        File f = new File(dir, name);
+        Random r = new Random(1);
+        BufferedWriter w = new BufferedWriter(new FileWriter(f));
+        try {
+            line(w, sep, "!", "Synthetic weather data");
+            for (int s = 1; s <= stations; s++) {
+                String idx = Integer.toString(s);
+                line(w, sep, "#", "WST_ID", "WST_LAT", "WST_LONG", "WST_ELEV", "TAV");
+                line(w, sep, idx, String.format("ST%04d", s), decimal(r, -40, 60), decimal(r, -180, 180), Integer.toString(r.nextInt(3000)), decimal(r, 5, 30));
+                line(w, sep, "%", "W_DATE", "SRAD", "TMAX", "TMIN", "RAIN");
+                int year = 1980, month = 1, day = 1;
+                for (int d = 0; d < days; d++) {
+                    line(w, sep, idx, String.format("%04d-%02d-%02d", year, month, day), decimal(r, 5, 30), decimal(r, 20, 40), decimal(r, 0, 20), r.nextInt(4) == 0 ? decimal(r, 0, 50) : "0");
+                    if (++day > DAYS_OF_MONTH[month - 1]) {
+                        day = 1;
+                        if (++month > 12) {
+                            month = 1;
+                            year++;
+                        }
+                    }
+                }
+            }
+        } finally {
+            w.close();
+        }
+        return f;
+    }
+
+    /**
+     * Experiment file with a summary section, management event rows and
+     * observed time series.
+     */
+    public static File experimentCsv(File dir, String name, int experiments, int events, char sep) throws IOException {
+        File f = new File(dir, name);
+        Random r = new Random(2);
+        BufferedWriter w = new BufferedWriter(new FileWriter(f));
+        try {
+            line(w, sep, "#", "EXNAME", "WST_ID", "SOIL_ID", "FL_LAT", "FL_LONG", "PLPOP");
+            for (int e = 1; e <= experiments; e++) {
+                // Every exname shows up twice to exercise the treatment numbering
+                line(w, sep, Integer.toString(e), String.format("EXP%04d", (e + 1) / 2), String.format("ST%04d", e % 10 + 1), String.format("SL%04d", e % 10 + 1), decimal(r, -40, 60), decimal(r, -180, 180), decimal(r, 1, 10));
+            }
+            for (int e = 1; e <= experiments; e++) {
+                String idx = Integer.toString(e);
+                line(w, sep, idx, "Event", "Planting", "pdate", "1999-04-15", "CRID", "MAZ", "PLPOP", decimal(r, 1, 10));
+                for (int i = 1; i < events; i++) {
+                    line(w, sep, idx, "Event", "Irrigation", "idate", String.format("1999-%02d-%02d", i % 12 + 1, i % 28 + 1), "IROP", "IR004", "IRVAL", Integer.toString(r.nextInt(100)));
+                }
+            }
+            line(w, sep, "%", "DATE", "HWAH", "LAID");
+            for (int e = 1; e <= experiments; e++) {
+                for (int i = 1; i <= 10; i++) {
+                    line(w, sep, Integer.toString(e), String.format("1999-%02d-%02d", i + 1, 15), Integer.toString(r.nextInt(5000)), decimal(r, 0, 6));
+                }
+            }
+        } finally {
+            w.close();
+        }
+        return f;
+    }
+
+    /**
+     * Soil file with one summary row and the layers per soil profile.
+     */
+    public static File soilCsv(File dir, String name, int soils, int layers, char sep) throws IOException {
+        File f = new File(dir, name);
+        Random r = new Random(3);
+        BufferedWriter w = new BufferedWriter(new FileWriter(f));
+        try {
+            line(w, sep, "#", "SOIL_ID", "SL_SOURCE", "SLDP");
+            for (int s = 1; s <= soils; s++) {
+                line(w, sep, Integer.toString(s), String.format("SL%04d", s), "Synthetic", Integer.toString(layers * 15));
+            }
+            line(w, sep, "%", "SLLB", "SLLL", "SLDUL", "SLOC");
+            for (int s = 1; s <= soils; s++) {
+                for (int l = 1; l <= layers; l++) {
+                    line(w, sep, Integer.toString(s), Integer.toString(l * 15), decimal(r, 0, 1), decimal(r, 0, 1), decimal(r, 0, 3));
+                }
+            }
+        } finally {
+            w.close();
+        }
+        return f;
+    }
+
+    /**
+     * Linkage file with the DOME IDs of each experiment.
+     */
+    public static File alnk(File dir, String name, int experiments) throws IOException {
+        File f = new File(dir, name);
+        BufferedWriter w = new BufferedWriter(new FileWriter(f));
+        try {
+            line(w, ',', "#", "EXNAME", "FIELD_OVERLAY", "SEASONAL_STRATEGY", "ROTATIONAL_ANALYSIS");
+            for (int e = 1; e <= experiments; e++) {
+                line(w, ',', "*", String.format("EXP%05d", e), String.format("REG-%d----FIELD", e % 50), String.format("REG-%d----SEASONAL", e % 20), "");
+            }
+        } finally {
+            w.close();
+        }
+        return f;
+    }
+
+    /**
+     * DOME file with rules and link lines.
+     */
+    public static File dome(File dir, String name, int rules, int links) throws IOException {
+        File f = new File(dir, name);
+        BufferedWriter w = new BufferedWriter(new FileWriter(f));
+        try {
+            line(w, ',', "&", "INFO", "Region", "SYNTHETIC");
+            for (int i = 0; i < rules; i++) {
+                if (i % 2 == 0) {
+                    line(w, ',', "&", "FILL", "PLPOP", Integer.toString(i % 10 + 1));
+                } else {
+                    line(w, ',', "&", "REPLACE", "PDATE", "OFFSET_DATE()", "$PDATE", Integer.toString(i % 30));
+                }
+            }
+            for (int i = 0; i < links; i++) {
+                line(w, ',', "&", "LINK", "EXNAME", String.format("EXP%05d", i % (links / 4 + 1)), i % 2 == 0 ? "OVERLAY" : "STRATEGY", String.format("REG-%d----FIELD", i), "");
+            }
+        } finally {
+            w.close();
+        }
+        return f;
+    }
+
+    /**
+     * Batch DOME file with the given number of groups and runs.
+     */
+    public static File batch(File dir, String name, int groups, int runs, int rules) throws IOException {
+        File f = new File(dir, name);
+        BufferedWriter w = new BufferedWriter(new FileWriter(f));
+        try {
+            line(w, ',', "&", "INFO", "Region", "SYNTHETIC");
+            for (int g = 1; g <= groups; g++) {
+                for (int n = 1; n <= runs; n++) {
+                    for (int i = 0; i < rules; i++) {
+                        line(w, ',', "@", Integer.toString(g), Integer.toString(n), "REPLACE", "FEAMN", Integer.toString(n * 10 + i));
+                    }
+                }
+            }
+        } finally {
+            w.close();
+        }
+        return f;
+    }
+
+    /**
+     * Pack the files into one ZIP file.
+     */
+    public static File zip(File dir, String name, File... entries) throws IOException {
+        File f = new File(dir, name);
+        ZipOutputStream out = new ZipOutputStream(new FileOutputStream(f));
+        byte[] buf = new byte[8192];
+        try {
+            for (File entry : entries) {
+                out.putNextEntry(new ZipEntry(entry.getName()));
+                InputStream in = new FileInputStream(entry);
+                try {
+                    int n;
+                    while ((n = in.read(buf)) > 0) {
+                        out.write(buf, 0, n);
+                    }
+                } finally {
+                    in.close();
+                }
+                out.closeEntry();
+            }
+        } finally {
+            out.close();
+        }
+        return f;
+    }
+
+    /**
+     * Delete the directory with everything in it.
+     */
+    public static void delete(File f) {
+        File[] files = f.listFiles();
+        if (files != null) {
+            for (File child : files) {
+                delete(child);
+            }
+        }
+        f.delete();
+    }
+
+    private static String decimal(Random r, int min, int max) {
+        return String.format(Locale.ROOT, "%.2f", min + r.nextDouble() * (max - min));
+    }
+
+    private static void line(BufferedWriter w, char sep, String... fields) throws IOException {
+        for (int i = 0; i < fields.length; i++) {
+            if (i > 0) {
+                w.write(sep);
+            }
+            w.write(fields[i]);
+        }
+        w.newLine();
+    }
+}
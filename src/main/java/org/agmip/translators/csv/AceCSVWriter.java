@@ -0,0 +1,166 @@
+package org.agmip.translators.csv;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+
+/**
+ * Writes the CSV lines field by field into a file. The characters are
+ * collected in one buffer and encoded into a direct byte buffer which is
+ * written to the file channel, so writing a line does not create any
+ * object.
+ *
+ * A field is only quoted if it contains the separator, a quote or a line
+ * break, which reads back the same with the CSV readers of this package.
+ */
+final class AceCSVWriter implements Closeable {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private final FileChannel channel;
+    private final char separator;
+    private final CharsetEncoder encoder;
+    private final CharBuffer chars = CharBuffer.allocate(BUFFER_SIZE);
+    private final ByteBuffer bytes = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    private boolean lineStart = true;
+    private long written;
+
+    /**
+     * Create the writer for the file in the default charset.
+     *
+     * @param file the file, which is overwritten
+     * @param separator the field separator
+     * @throws IOException if the file can not be opened
+     */
+    AceCSVWriter(File file, char separator) throws IOException {
+        this.channel = new FileOutputStream(file).getChannel();
+        this.separator = separator;
+        this.encoder = Charset.defaultCharset().newEncoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    }
+
+    /**
+     * Write the next field of the current line.
+     */
+    void field(String value) throws IOException {
+        if (!lineStart) {
+            append(separator);
+        }
+        lineStart = false;
+        if (needsQuotes(value)) {
+            append('"');
+            int len = value.length();
+            for (int i = 0; i < len; i++) {
+                char c = value.charAt(i);
+                if (c == '"') {
+                    append('"');
+                }
+                append(c);
+            }
+            append('"');
+        } else {
+            append(value);
+        }
+    }
+
+    /**
+     * Write the fields as the next fields of the current line.
+     */
+    void fields(String... values) throws IOException {
+        for (String value : values) {
+            field(value);
+        }
+    }
+
+    /**
+     * End the current line.
+     */
+    void endLine() throws IOException {
+        append('\n');
+        lineStart = true;
+    }
+
+    /**
+     * Get the number of bytes written to the file so far.
+     */
+    long getBytesWritten() {
+        return written;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            encode(true);
+            while (encoder.flush(bytes).isOverflow()) {
+                writeBytes();
+            }
+            writeBytes();
+        } finally {
+            channel.close();
+        }
+    }
+
+    private boolean needsQuotes(String value) {
+        int len = value.length();
+        for (int i = 0; i < len; i++) {
+            char c = value.charAt(i);
+            if (c == separator || c == '"' || c == '\n' || c == '\r') {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void append(char c) throws IOException {
+        if (!chars.hasRemaining()) {
+            encode(false);
+        }
+        chars.put(c);
+    }
+
+    private void append(String value) throws IOException {
+        int start = 0;
+        int len = value.length();
+        while (start < len) {
+            if (!chars.hasRemaining()) {
+                encode(false);
+            }
+            int end = Math.min(len, start + chars.remaining());
+            chars.put(value, start, end);
+            start = end;
+        }
+    }
+
+    /**
+     * Encode the buffered characters, keeping a character which can not be
+     * encoded yet (like half of a surrogate pair) in the buffer.
+     */
+    private void encode(boolean endOfInput) throws IOException {
+        chars.flip();
+        while (true) {
+            CoderResult result = encoder.encode(chars, bytes, endOfInput);
+            if (result.isOverflow()) {
+                writeBytes();
+            } else {
+                break;
+            }
+        }
+        chars.compact();
+    }
+
+    private void writeBytes() throws IOException {
+        bytes.flip();
+        while (bytes.hasRemaining()) {
+            written += channel.write(bytes);
+        }
+        bytes.clear();
+    }
+}
@@ -36,9 +36,10 @@ import org.agmip.core.types.TranslatorInput;
 public class AlnkInput implements TranslatorInput {
 
     private static final Logger LOG = LoggerFactory.getLogger(AlnkInput.class);
-    private HashMap<String, String> ovlLinks, stgLinks, rotLinks; // Storage maps
+    private DomeLinks ovlLinks, stgLinks, rotLinks; // Storage maps
     private String listSeparator = ",";
     private AlnkHeader header;
+    private int linkCount; // Counter of the current file, for the summary log
 
     private enum HeaderType {
 
@@ -94,20 +95,25 @@ public class AlnkInput implements TranslatorInput {
         CSVReader reader = new CSVReader(br, this.listSeparator.charAt(0));
 
         // Read ALNK file content
+        long start = System.nanoTime();
+        boolean trace = LOG.isTraceEnabled();
         int ln = 0;
+        int rows = 0;
+        linkCount = 0;
         while ((nextLine = reader.readNext()) != null) {
             ln++;
-            LOG.debug("Line number: " + ln);
+            if (trace) {
+                LOG.trace("Line number: {}", ln);
+            }
             if (nextLine[0].startsWith("!")) {
-                LOG.debug("Found a comment line");
+                // Comment line
             } else if (nextLine[0].startsWith("#")) {
-                LOG.debug("Found a summary header line");
                 header = new AlnkHeader(nextLine);
             } else if (nextLine[0].startsWith("*")) {
-                LOG.debug("Found a complete experiment line");
+                rows++;
                 parseDataLine(nextLine);
             } else if (nextLine.length == 1) {
-                LOG.debug("Found a blank line, skipping");
+                // Blank line, skipping
             } else {
                 boolean isBlank = true;
                 // Check the nextLine array for all blanks
@@ -119,14 +125,19 @@ public class AlnkInput implements TranslatorInput {
                     }
                 }
                 if (!isBlank) {
-                    LOG.debug("Found a data line with [" + nextLine[0] + "] as the index");
+                    if (trace) {
+                        LOG.trace("Found a data line with [{}] as the index", nextLine[0]);
+                    }
+                    rows++;
                     parseDataLine(nextLine);
-                } else {
-                    LOG.debug("Found a blank line, skipping");
                 }
             }
         }
         reader.close();
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("Read {} lines, {} data rows and {} links in {} ms",
+                    ln, rows, linkCount, (System.nanoTime() - start) / 1000000);
+        }
     }
 
     protected void parseDataLine(String[] data) throws Exception {
@@ -160,35 +171,29 @@ public class AlnkInput implements TranslatorInput {
         }
     }
     
-    private void saveDomeID(HashMap<String, String> m, String key, String value) {
-        if (m.containsKey(key)) {
-            String link = m.get(key);
-            if (!link.contains(value)) {
-                m.put(key, link + "|" + value);
-            }
-        } else {
-            m.put(key, value);
-        }
+    private void saveDomeID(DomeLinks m, String key, String value) {
+        linkCount++;
+        m.add(key, value);
     }
 
     private HashMap cleanupResult() {
         HashMap ret = new HashMap();
         if (!ovlLinks.isEmpty()) {
-            ret.put("link_overlay", ovlLinks);
+            ret.put("link_overlay", ovlLinks.toMap());
         }
         if (!stgLinks.isEmpty()) {
-            ret.put("link_stragty", stgLinks);
+            ret.put("link_stragty", stgLinks.toMap());
         }
         if (!rotLinks.isEmpty()) {
-            ret.put("link_rotational", rotLinks);
+            ret.put("link_rotational", rotLinks.toMap());
         }
         return ret;
     }
 
     protected void init(BufferedReader in) throws Exception {
-        ovlLinks = new HashMap();
-        stgLinks = new HashMap();
-        rotLinks = new HashMap();
+        ovlLinks = new DomeLinks();
+        stgLinks = new DomeLinks();
+        rotLinks = new DomeLinks();
         setListSeparator(in);
     }
 
@@ -199,12 +204,12 @@ public class AlnkInput implements TranslatorInput {
         while ((sample = in.readLine()) != null) {
             if (sample.startsWith("#")) {
                 String listSeperator = sample.substring(1, 2);
-                LOG.debug("FOUND SEPARATOR: " + listSeperator);
+                LOG.debug("FOUND SEPARATOR: {}", listSeperator);
                 this.listSeparator = listSeperator;
                 break;
             } else if (sample.startsWith("\"#\"")) {
                 String listSeperator = sample.substring(3, 4);
-                LOG.debug("FOUND SEPARATOR: " + listSeperator);
+                LOG.debug("FOUND SEPARATOR: {}", listSeperator);
                 this.listSeparator = listSeperator;
                 break;
             }
@@ -101,20 +101,19 @@ public class AlnkOutput implements TranslatorOutput {
         headerKeys.add("seasonal_strategy");
         headerKeys.add("rotational_analysis");
 
-        HashSet finExnames = new HashSet();
+        HashSet<String> finExnames = new HashSet<String>();
         for (HashMap m : dataArr) {
             nextLine = new ArrayList();
             nextLine.add("*");
             if (!isNoExp) {
                 String exname = getValueOr(m, "exname", "");
                 if ("Y".equals(getValueOr(m, "seasonal_dome_applied", ""))) {
-                    exname = exname.replaceAll("_\\d+__\\d+$", "");
+                    exname = ExnameUtil.stripSeasonal(exname);
                 } else if ("Y".equals(getValueOr(m, "field_dome_applied", ""))) {
-                    exname = exname.replaceAll("_\\d+$", "");
+                    exname = ExnameUtil.stripTreatment(exname);
                 }
-                if (!finExnames.contains(exname)) {
+                if (finExnames.add(exname)) {
                     nextLine.add("\"" + exname + "\"");
-                    finExnames.add(exname);
                 } else {
                     continue;
                 }
@@ -130,20 +129,14 @@ public class AlnkOutput implements TranslatorOutput {
 //        }
     }
 
-    private File getOutputFile(String outputDirectory) {
+    private File getOutputFile(String outputDirectory) throws IOException {
         File f;
         if (outputDirectory.toLowerCase().endsWith(".alnk")) {
             f = new File(outputDirectory);
             Functions.revisePath(f.getParent());
         } else {
             outputDirectory = Functions.revisePath(outputDirectory);
-            String path = outputDirectory + File.separator + "Linkage";
-            f = new File(path + ".alnk");
-            int count = 1;
-            while (f.exists()) {
-                f = new File(path + "_" + count + ".csv");
-                count++;
-            }
+            f = new OutputFileAllocator(new File(outputDirectory)).allocate("Linkage", ".alnk");
         }
         return f;
     }
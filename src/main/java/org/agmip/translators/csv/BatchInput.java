@@ -6,6 +6,8 @@ import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
 import java.util.Map;
 
 import au.com.bytecode.opencsv.CSVReader;
@@ -20,7 +22,10 @@ public class BatchInput implements TranslatorInput {
 
     private static final Logger log = LoggerFactory.getLogger(BatchInput.class);
     private final HashMap<String, Object> dome = new HashMap<String, Object>();
-    private final ArrayList<HashMap<String, Object>> batchDomes = new ArrayList();
+    private final ArrayList<HashMap<String, Object>> batchDomes = new ArrayList<HashMap<String, Object>>();
+    private final LinkedHashMap<String, HashMap<String, Object>> batchDomeIndex = new LinkedHashMap<String, HashMap<String, Object>>();
+    private final IdentityHashMap<ArrayList<HashMap<String, Object>>, HashMap<String, HashMap<String, Object>>> batchRunIndexes
+            = new IdentityHashMap<ArrayList<HashMap<String, Object>>, HashMap<String, HashMap<String, Object>>>(); // batch_runs -> batch_run# -> run
 
     @Override
     public Map readFile(String fileName) throws Exception {
@@ -53,20 +58,10 @@ public class BatchInput implements TranslatorInput {
 
             ln++;
             if (nextLine[0].startsWith("&")) {
-                // This is an official dome line.
-                log.debug("Found a batch DOME info at line {}", ln);
-                String cmd = nextLine[1].trim().toUpperCase(); // TODO fix the file format for sensitive analysis
-                if (cmd.equals("INFO")) {
-                    info.put(nextLine[2].toLowerCase(), nextLine[3].toUpperCase());
-                } else {
-                    log.error("Found invalid command {} at line {}", cmd, ln);
-                }
+                parseInfoLine(nextLine, info, ln);
             } else if (nextLine[0].startsWith("@")) {
-                log.debug("Found a batch DOME instruction at line {}", ln);
-                lineMap = new HashMap<String, String>();
                 String groupId = nextLine[1].trim().toUpperCase();
                 String runNum = nextLine[2].trim().toUpperCase();
-                String cmd = nextLine[3].trim().toUpperCase();
 
                 if (lastGroupId == null || !lastGroupId.equals(groupId)) {
                     lastGroupId = groupId;
@@ -79,46 +74,9 @@ public class BatchInput implements TranslatorInput {
                     rules = (ArrayList<HashMap<String, String>>) batchRun.get("rules");
                 }
 
-                if ((cmd.equals("FILL") || cmd.equals("REPLACE"))) {
-                    StringBuilder args = new StringBuilder();
-                    if (nextLine[5].endsWith("()")) {
-                        log.debug("Found fun {}", nextLine[5].toUpperCase());
-
-                        int argLen = nextLine.length - 5;
-
-                        if (argLen != 0) {
-                            args.append(nextLine[5]);
-                            if (argLen > 1) {
-                                for (int i = 6; i < nextLine.length; i++) {
-                                    args.append("|");
-                                    if (!nextLine[i].startsWith("!")) {
-                                        args.append(nextLine[i].toUpperCase());
-                                    }
-                                }
-                            }
-                        }
-
-                        log.debug("Current Args: {}", args.toString());
-//                        int chopIndex = args.indexOf("||", 0);
-//                        if (chopIndex == -1) {
-//                            chopIndex = args.length();
-//                        }
-//                        if (args.substring(0, chopIndex).endsWith("|")) {
-//                            chopIndex--;
-//                        }
-//                        lineMap.put("args", args.substring(0, chopIndex));
-                        lineMap.put("args", args.toString());
-                    } else {
-                        // Variable or static
-                        lineMap.put("args", nextLine[5].toUpperCase());
-                    }
-
-                    lineMap.put("cmd", cmd);
-                    lineMap.put("variable", nextLine[4].toLowerCase());
+                lineMap = parseRuleLine(nextLine, ln);
+                if (lineMap != null) {
                     rules.add(lineMap);
-
-                } else {
-                    log.error("Found invalid command {} at line {}", cmd, ln);
                 }
             }
         }
@@ -127,6 +85,84 @@ public class BatchInput implements TranslatorInput {
         dome.put("batch_group", batchDomes);
     }
 
+    /**
+     * Read the batch runs one at a time from the stream, instead of
+     * collecting all of them into the DOME. See {@link BatchRunIterator}.
+     *
+     * @param stream the batch CSV content
+     * @return the iterator of the runs
+     */
+    public static BatchRunIterator readRuns(InputStream stream) {
+        return new BatchRunIterator(stream);
+    }
+
+    /**
+     * Parse a "&" line into the info map.
+     */
+    static void parseInfoLine(String[] nextLine, HashMap<String, String> info, int ln) {
+        // This is an official dome line.
+        log.debug("Found a batch DOME info at line {}", ln);
+        String cmd = nextLine[1].trim().toUpperCase(); // TODO fix the file format for sensitive analysis
+        if (cmd.equals("INFO")) {
+            info.put(nextLine[2].toLowerCase(), nextLine[3].toUpperCase());
+        } else {
+            log.error("Found invalid command {} at line {}", cmd, ln);
+        }
+    }
+
+    /**
+     * Parse the rule of a "@" line.
+     *
+     * @return the rule, or null if the command is invalid
+     */
+    static HashMap<String, String> parseRuleLine(String[] nextLine, int ln) {
+        log.debug("Found a batch DOME instruction at line {}", ln);
+        HashMap<String, String> lineMap = new HashMap<String, String>();
+        String cmd = nextLine[3].trim().toUpperCase();
+        if ((cmd.equals("FILL") || cmd.equals("REPLACE"))) {
+            StringBuilder args = new StringBuilder();
+            if (nextLine[5].endsWith("()")) {
+                log.debug("Found fun {}", nextLine[5].toUpperCase());
+
+                int argLen = nextLine.length - 5;
+
+                if (argLen != 0) {
+                    args.append(nextLine[5]);
+                    if (argLen > 1) {
+                        for (int i = 6; i < nextLine.length; i++) {
+                            args.append("|");
+                            if (!nextLine[i].startsWith("!")) {
+                                args.append(nextLine[i].toUpperCase());
+                            }
+                        }
+                    }
+                }
+
+                log.debug("Current Args: {}", args.toString());
+//                int chopIndex = args.indexOf("||", 0);
+//                if (chopIndex == -1) {
+//                    chopIndex = args.length();
+//                }
+//                if (args.substring(0, chopIndex).endsWith("|")) {
+//                    chopIndex--;
+//                }
+//                lineMap.put("args", args.substring(0, chopIndex));
+                lineMap.put("args", args.toString());
+            } else {
+                // Variable or static
+                lineMap.put("args", nextLine[5].toUpperCase());
+            }
+
+            lineMap.put("cmd", cmd);
+            lineMap.put("variable", nextLine[4].toLowerCase());
+            return lineMap;
+
+        } else {
+            log.error("Found invalid command {} at line {}", cmd, ln);
+            return null;
+        }
+    }
+
     public HashMap<String, Object> getDome() {
         return dome;
     }
@@ -136,15 +172,15 @@ public class BatchInput implements TranslatorInput {
     }
     
     public HashMap<String, Object> getBatchDome(String groupId, boolean addNew) {
-        for (HashMap<String, Object> batchDome : batchDomes) {
-            if (groupId.equals(batchDome.get("group_id"))) {
-                return batchDome;
-            }
+        HashMap<String, Object> batchDome = batchDomeIndex.get(groupId);
+        if (batchDome != null) {
+            return batchDome;
         }
-        
-        HashMap<String, Object> batchDome = new HashMap();
+
+        batchDome = new HashMap();
         if (addNew) {
             batchDomes.add(batchDome);
+            batchDomeIndex.put(groupId, batchDome);
             batchDome.put("group_id", groupId);
             batchDome.put("batch_runs", new ArrayList<HashMap<String, String>>());
         }
@@ -153,13 +189,16 @@ public class BatchInput implements TranslatorInput {
     
     public HashMap<String, Object> getBatchRun(HashMap batchDome, String runNum, boolean addNew) {
         ArrayList<HashMap<String, Object>> batchRuns = MapUtil.getObjectOr(batchDome, "batch_runs", new ArrayList());
-        for (HashMap<String, Object> batchRun : batchRuns) {
-            if (runNum.equals(batchRun.get("batch_run#"))) {
-                return batchRun;
-            }
+        if (batchRuns.isEmpty() && !addNew) {
+            return new HashMap();
+        }
+        HashMap<String, HashMap<String, Object>> index = getBatchRunIndex(batchRuns);
+        HashMap<String, Object> batchRun = index.get(runNum);
+        if (batchRun != null) {
+            return batchRun;
         }
-        
-        HashMap<String, Object> batchRun = new HashMap();
+
+        batchRun = new HashMap();
         if (addNew) {
             if (batchRuns.isEmpty()) {
                 batchDome.put("batch_runs", batchRuns);
@@ -167,7 +206,28 @@ public class BatchInput implements TranslatorInput {
             batchRuns.add(batchRun);
             batchRun.put("rules", new ArrayList());
             batchRun.put("batch_run#", runNum);
+            index.put(runNum, batchRun);
         }
         return batchRun;
     }
+
+    /**
+     * Get the index of the runs by their number. It is built again if the
+     * list of runs has been changed outside of this class, in which case the
+     * first run with the number is used, like a scan of the list would.
+     */
+    private HashMap<String, HashMap<String, Object>> getBatchRunIndex(ArrayList<HashMap<String, Object>> batchRuns) {
+        HashMap<String, HashMap<String, Object>> index = batchRunIndexes.get(batchRuns);
+        if (index == null || index.size() != batchRuns.size()) {
+            index = new HashMap<String, HashMap<String, Object>>();
+            for (HashMap<String, Object> batchRun : batchRuns) {
+                Object runNum = batchRun.get("batch_run#");
+                if (runNum instanceof String && !index.containsKey((String) runNum)) {
+                    index.put((String) runNum, batchRun);
+                }
+            }
+            batchRunIndexes.put(batchRuns, index);
+        }
+        return index;
+    }
 }
@@ -0,0 +1,115 @@
+package org.agmip.translators.csv;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import au.com.bytecode.opencsv.CSVReader;
+
+/**
+ * Reads the runs of a batch DOME file one at a time, so a run can be used
+ * while the next one is still being read and only one run is kept in memory.
+ *
+ * Each run has the same "group_id", "batch_run#" and "rules" entries as the
+ * runs collected by {@link BatchInput}. The runs are expected to be written
+ * on contiguous lines; a run whose lines appear again after another run is
+ * given again with the rules of those later lines. The "&amp;" info lines
+ * read so far are available from {@link #getInfo()}.
+ *
+ * Reading errors are thrown as {@link UncheckedIOException}. The stream is
+ * closed when all the runs have been read, or by {@link #close()}.
+ */
+public class BatchRunIterator implements Iterator<HashMap<String, Object>>, Closeable {
+
+    private final CSVReader reader;
+    private final HashMap<String, String> info = new HashMap<String, String>();
+    private String[] pendingLine; // First line of the next run, already read
+    private HashMap<String, Object> nextRun;
+    private boolean finished = false;
+    private int ln = 0;
+
+    public BatchRunIterator(InputStream stream) {
+        this.reader = new CSVReader(new BufferedReader(new InputStreamReader(stream)));
+    }
+
+    /**
+     * Get the info of the batch file read so far.
+     */
+    public HashMap<String, String> getInfo() {
+        return info;
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (nextRun == null && !finished) {
+            try {
+                nextRun = readRun();
+            } catch (IOException ex) {
+                throw new UncheckedIOException(ex);
+            }
+        }
+        return nextRun != null;
+    }
+
+    @Override
+    public HashMap<String, Object> next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        HashMap<String, Object> ret = nextRun;
+        nextRun = null;
+        return ret;
+    }
+
+    @Override
+    public void close() throws IOException {
+        finished = true;
+        reader.close();
+    }
+
+    private HashMap<String, Object> readRun() throws IOException {
+        HashMap<String, Object> batchRun = null;
+        ArrayList<HashMap<String, String>> rules = null;
+        String[] nextLine;
+        while (true) {
+            if (pendingLine != null) {
+                nextLine = pendingLine;
+                pendingLine = null;
+            } else {
+                nextLine = reader.readNext();
+                if (nextLine == null) {
+                    close();
+                    return batchRun;
+                }
+                ln++;
+            }
+            if (nextLine[0].startsWith("&")) {
+                BatchInput.parseInfoLine(nextLine, info, ln);
+            } else if (nextLine[0].startsWith("@")) {
+                String groupId = nextLine[1].trim().toUpperCase();
+                String runNum = nextLine[2].trim().toUpperCase();
+                if (batchRun == null) {
+                    rules = new ArrayList<HashMap<String, String>>();
+                    batchRun = new HashMap<String, Object>();
+                    batchRun.put("group_id", groupId);
+                    batchRun.put("batch_run#", runNum);
+                    batchRun.put("rules", rules);
+                } else if (!groupId.equals(batchRun.get("group_id")) || !runNum.equals(batchRun.get("batch_run#"))) {
+                    pendingLine = nextLine;
+                    return batchRun;
+                }
+                HashMap<String, String> lineMap = BatchInput.parseRuleLine(nextLine, ln);
+                if (lineMap != null) {
+                    rules.add(lineMap);
+                }
+            }
+        }
+    }
+}
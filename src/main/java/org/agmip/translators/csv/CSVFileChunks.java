@@ -0,0 +1,205 @@
+package org.agmip.translators.csv;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Splits a CSV file into chunks of whole lines, so each chunk can be read on
+ * its own by a {@link CSVTokenizer}. Each chunk knows the last "#" or "%"
+ * header line before it and the section it starts in.
+ *
+ * The chunks are first cut after the line break following each multiple of
+ * the chunk size, and scanned at the same time. A quoted field may go on
+ * over such a line break, which is only known once the chunk before has been
+ * scanned, so a chunk which does not start where the one before ends is
+ * scanned again from the right place. Each chunk is memory mapped on its
+ * own, so the file may be larger than 2 GB.
+ */
+final class CSVFileChunks {
+
+    static final long MAX_CHUNK_SIZE = 1L << 30;
+    private static final long MAX_WINDOW = Integer.MAX_VALUE;
+    private final FileChannel channel;
+    private final long size;
+    private final char separator;
+    private final Charset charset;
+    private final ArrayList<Chunk> chunks = new ArrayList<Chunk>();
+
+    /**
+     * A range of whole lines of the file.
+     */
+    static final class Chunk {
+
+        final long start;
+        final long end;
+        final String[] header; // The last header line before the chunk, or null
+        final char section; // The first character of the last "#", "%" or "*" line before the chunk, or 0
+
+        private Chunk(long start, long end, String[] header, char section) {
+            this.start = start;
+            this.end = end;
+            this.header = header;
+            this.section = section;
+        }
+    }
+
+    /**
+     * Create the splitter of the file.
+     *
+     * @param channel the channel of the file, which must stay open while the
+     * chunks are read
+     * @param separator the field separator
+     * @param charset the charset of the file, which must be supported by
+     * {@link CSVTokenizer#supports(Charset, char)}
+     * @throws IOException if the size of the file can not be read
+     */
+    CSVFileChunks(FileChannel channel, char separator, Charset charset) throws IOException {
+        this.channel = channel;
+        this.size = channel.size();
+        this.separator = separator;
+        this.charset = charset;
+    }
+
+    /**
+     * Split the file into chunks, scanning them on the thread pool.
+     *
+     * @param chunkSize the size of the chunks, at most {@link #MAX_CHUNK_SIZE}
+     * @param pool the thread pool
+     * @throws IOException if the file can not be read
+     */
+    void split(long chunkSize, ExecutorService pool) throws IOException, InterruptedException {
+        chunkSize = Math.max(1, Math.min(chunkSize, MAX_CHUNK_SIZE));
+        ArrayList<Long> starts = new ArrayList<Long>();
+        starts.add(0L);
+        for (long s = chunkSize; s < size; s += chunkSize) {
+            long start = lineStart(s);
+            if (start < size && start > starts.get(starts.size() - 1)) {
+                starts.add(start);
+            }
+        }
+        starts.add(size);
+
+        ArrayList<Future<Chunk>> scans = new ArrayList<Future<Chunk>>();
+        for (int i = 0; i + 1 < starts.size(); i++) {
+            final long start = starts.get(i);
+            final long stop = starts.get(i + 1);
+            scans.add(pool.submit(new Callable<Chunk>() {
+                @Override
+                public Chunk call() throws IOException {
+                    return scan(start, stop);
+                }
+            }));
+        }
+
+        chunks.clear();
+        long expected = 0;
+        String[] header = null;
+        char section = 0;
+        for (int i = 0; i < scans.size(); i++) {
+            long stop = starts.get(i + 1);
+            if (expected >= stop) {
+                // The whole chunk is part of a line of the chunk before
+                scans.get(i).cancel(false);
+                continue;
+            }
+            Chunk scanned = get(scans.get(i));
+            if (scanned.start != expected) {
+                scanned = scan(expected, stop);
+            }
+            chunks.add(new Chunk(expected, scanned.end, header, section));
+            if (scanned.header != null) {
+                header = scanned.header;
+            }
+            if (scanned.section != 0) {
+                section = scanned.section;
+            }
+            expected = scanned.end;
+        }
+    }
+
+    /**
+     * Get the chunks, in the order of the file.
+     */
+    List<Chunk> getChunks() {
+        return chunks;
+    }
+
+    /**
+     * Get the tokenizer of the lines of the chunk.
+     */
+    CSVTokenizer open(Chunk chunk) throws IOException {
+        return new CSVTokenizer(map(channel, chunk.start, chunk.end), separator, charset);
+    }
+
+    /**
+     * Memory map a range of the file, which must be at most 2 GB.
+     */
+    static ByteBuffer map(FileChannel channel, long start, long end) throws IOException {
+        return channel.map(FileChannel.MapMode.READ_ONLY, start, end - start);
+    }
+
+    /**
+     * Scan the lines starting before the stop position. The header and the
+     * section of the returned chunk are the last ones found in it.
+     */
+    private Chunk scan(long start, long stop) throws IOException {
+        CSVTokenizer lines = new CSVTokenizer(map(channel, start, Math.min(size, start + MAX_WINDOW)), separator, charset);
+        int limit = (int) (stop - start);
+        String[] header = null;
+        char section = 0;
+        while (lines.position() < limit && lines.next()) {
+            if (lines.startsWith(0, '#')) {
+                header = lines.toArray();
+                section = '#';
+            } else if (lines.startsWith(0, '%')) {
+                header = lines.toArray();
+                section = '%';
+            } else if (lines.startsWith(0, '*')) {
+                section = '*';
+            }
+        }
+        return new Chunk(start, start + lines.position(), header, section);
+    }
+
+    /**
+     * Get the position after the first line break at or after the given
+     * position, or the size of the file if there is none.
+     */
+    private long lineStart(long position) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(8192);
+        long p = position - 1;
+        while (p < size) {
+            buf.clear();
+            int n = channel.read(buf, p);
+            if (n <= 0) {
+                break;
+            }
+            for (int i = 0; i < n; i++) {
+                if (buf.get(i) == '\n') {
+                    return p + i + 1;
+                }
+            }
+            p += n;
+        }
+        return size;
+    }
+
+    private static Chunk get(Future<Chunk> future) throws IOException, InterruptedException {
+        try {
+            return future.get();
+        } catch (ExecutionException ex) {
+            if (ex.getCause() instanceof IOException) {
+                throw (IOException) ex.getCause();
+            }
+            throw new IOException(ex.getCause());
+        }
+    }
+}
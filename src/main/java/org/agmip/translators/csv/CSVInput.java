@@ -1,17 +1,30 @@
 package org.agmip.translators.csv;
 
 import java.io.BufferedReader;
+import java.io.File;
 import java.io.FileInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
-import java.text.DateFormat;
-import java.text.SimpleDateFormat;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
-import java.util.Date;
+import java.util.Arrays;
 import java.util.Enumeration;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.UUID;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.zip.ZipFile;
 import java.util.zip.ZipEntry;
 
@@ -21,7 +34,6 @@ import java.util.HashSet;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import org.agmip.ace.AcePathfinder;
 import org.agmip.ace.util.AcePathfinderUtil;
 import org.agmip.core.types.TranslatorInput;
 import org.agmip.util.MapUtil;
@@ -43,14 +55,17 @@ import org.agmip.util.MapUtil;
 public class CSVInput implements TranslatorInput {
 
     private static Logger LOG = LoggerFactory.getLogger(CSVInput.class);
-//    private HashMap<String, HashMap<String, HashMap<String, Object>>> finalMap;
-    private HashMap<String, HashMap<String, Object>> expMap, weatherMap, soilMap; // Storage maps
-    private HashMap<String, Integer> trtTracker;
-    private HashMap<String, String> idMap;
-    private ArrayList<String> orderring;
-    private String listSeparator;
-    private AcePathfinder pathfinder = AcePathfinderUtil.getInstance();
-    private static HashSet unknowVars = new HashSet();
+    // Only the settings are kept here, the state of a translation is in its ParseContext
+    private volatile EntityIdGenerator idGenerator = new EntityIdGenerator.Counter();
+    private volatile boolean contiguousRows = false;
+    private volatile int threads = 1;
+    private volatile boolean memoryMapped = false;
+    private volatile boolean columnarSeries = false;
+    private volatile int stringPoolSize = StringPool.DEFAULT_SIZE; // 0 if disabled
+    private volatile long chunkSize = 0;
+    private volatile TranslationCache cache; // Null if disabled
+    private volatile EntityCache entityCache = EntityCache.getDefault(); // Null if disabled
+    private volatile TranslationMetrics metrics = TranslationMetrics.getDefault(); // Null if not recorded
 
     private enum HeaderType {
 
@@ -66,13 +81,21 @@ public class CSVInput implements TranslatorInput {
         private final String defPath;
         private final AcePathfinderUtil.PathType defPathType;
         private final HashMap<String, Integer> subListKeyMap;
+        private final CSVColumn[] columns;
+        private final HashMap<String, CSVColumn> eventColumns;
+        private final StringPool pool;
 
         public CSVHeader(ArrayList<String> headers, ArrayList<Integer> sc) {
             this(headers, sc, null, AcePathfinderUtil.PathType.UNKNOWN);
         }
 
         public CSVHeader(ArrayList<String> headers, ArrayList<Integer> sc, String defPath, AcePathfinderUtil.PathType defPathType) {
+            this(headers, sc, defPath, defPathType, null);
+        }
+
+        public CSVHeader(ArrayList<String> headers, ArrayList<Integer> sc, String defPath, AcePathfinderUtil.PathType defPathType, StringPool pool) {
             this.headers = headers;
+            this.pool = pool;
             this.skippedColumns = sc;
             this.defPath = defPath;
             this.defPathType = defPathType;
@@ -102,6 +125,11 @@ public class CSVInput implements TranslatorInput {
                     }
                 }
             }
+            this.columns = new CSVColumn[headers.size()];
+            for (int i = 0; i < columns.length; i++) {
+                columns[i] = new CSVColumn(headers.get(i), sc.contains(i + 1), this);
+            }
+            this.eventColumns = new HashMap<String, CSVColumn>();
         }
 
         public CSVHeader() {
@@ -110,6 +138,9 @@ public class CSVInput implements TranslatorInput {
             this.defPath = null;
             this.defPathType = AcePathfinderUtil.PathType.UNKNOWN;
             this.subListKeyMap = new HashMap();
+            this.columns = new CSVColumn[0];
+            this.eventColumns = new HashMap<String, CSVColumn>();
+            this.pool = null;
         }
 
         public ArrayList<String> getHeaders() {
@@ -132,109 +163,1159 @@ public class CSVInput implements TranslatorInput {
             return new ArrayList(subListKeyMap.keySet());
         }
         
-        public HashMap<String, String> getSubListKeys(String[] data) {
+        public HashMap<String, String> getSubListKeys(CSVRow data) {
             HashMap<String, String> keys = new HashMap();
             for (String key : subListKeyMap.keySet()) {
-                keys.put(key, data[subListKeyMap.get(key)]);
+                keys.put(key, data.get(subListKeyMap.get(key)));
             }
             return keys;
         }
+
+        public boolean hasSubListKeys() {
+            return !subListKeyMap.isEmpty();
+        }
+
+        /**
+         * Get the compiled columns, in the same order as the headers.
+         */
+        public CSVColumn[] getColumns() {
+            return columns;
+        }
+
+        /**
+         * Get the compiled column for a variable which is not part of the
+         * header, like the ones given by the event lines.
+         */
+        public CSVColumn getColumn(String variable) {
+            CSVColumn column = eventColumns.get(variable);
+            if (column == null) {
+                column = new CSVColumn(variable, false, this);
+                eventColumns.put(variable, column);
+            }
+            return column;
+        }
+
+        /**
+         * Get the pooled copy of a variable name.
+         */
+        public String pool(String value) {
+            return pool == null ? value : pool.get(value);
+        }
     }
 
-    public CSVInput() {
-        expMap = new HashMap<String, HashMap<String, Object>>();
-        weatherMap = new HashMap<String, HashMap<String, Object>>();
-        soilMap = new HashMap<String, HashMap<String, Object>>();
-        trtTracker = new HashMap<String, Integer>();
-        idMap = new HashMap<String, String>();
+    /**
+     * The counts of the lines and the values of the current file, for the
+     * summary log and the metrics.
+     */
+    static final class ReadCounts {
+
+        int comments, headers, rows, events, dome, blank, cells, unknown, dates;
+        long poolHits, poolMisses; // String pool lookups
+
+        void add(ReadCounts other) {
+            comments += other.comments;
+            headers += other.headers;
+            rows += other.rows;
+            events += other.events;
+            dome += other.dome;
+            blank += other.blank;
+            cells += other.cells;
+            unknown += other.unknown;
+            dates += other.dates;
+            poolHits += other.poolHits;
+            poolMisses += other.poolMisses;
+        }
+    }
+
+    /**
+     * Everything about where the values of a column go, which only depends
+     * on the variable and the header. It is worked out once per header line,
+     * so the data lines do not need any lookup for it.
+     */
+    private static class CSVColumn {
+
+        private final String var;
+        private final boolean skipped;
+        private final boolean isId; // wst_id or soil_id, also kept by the experiment
+        private final boolean isExname;
+        private final boolean isDate;
+        private final boolean isUnknown;
+        private final AcePathfinderUtil.PathType topType; // WEATHER, SOIL or EXPERIMENT
+        private final String path;
+        private final String[] subListPath; // Only set if the value may go into a record of the header's sub list
+        private UnknownVariable unknown; // Set on the first value of an unknown variable
+
+        public CSVColumn(String variable, boolean skipped, CSVHeader header) {
+            this.var = header.pool(variable.toLowerCase());
+            this.skipped = skipped;
+            this.isId = var.equals("wst_id") || var.equals("soil_id");
+            this.isExname = !isId && var.equals("exname");
+            this.isDate = !isId && !isExname && AcePathfinderUtil.getInstance().isDate(var);
+            AcePathfinderUtil.PathType type = AcePathfinderUtil.getVariableType(var);
+            this.isUnknown = type == AcePathfinderUtil.PathType.UNKNOWN;
+            if (type == AcePathfinderUtil.PathType.WEATHER || type == AcePathfinderUtil.PathType.SOIL) {
+                this.topType = type;
+            } else if (isUnknown && (header.getDefPathType() == AcePathfinderUtil.PathType.WEATHER
+                    || header.getDefPathType() == AcePathfinderUtil.PathType.SOIL)) {
+                this.topType = header.getDefPathType();
+            } else {
+                this.topType = AcePathfinderUtil.PathType.EXPERIMENT;
+            }
+            String p = AcePathfinderUtil.getInstance().getPath(var);
+            if (header.hasSubListKeys() && (header.getDefPath().equals(p) || p == null || p.isEmpty())) {
+                this.path = header.getDefPath();
+                this.subListPath = path.split("@");
+            } else {
+                this.path = p;
+                this.subListPath = null;
+            }
+        }
+    }
+
+    /**
+     * Hash index for the records of a sub list (like weather@dailyWeather),
+     * keyed by the values of the sub list keys from
+     * {@link CSVHeader#getSubListKeys(CSVRow)}. The records appended to the
+     * list are indexed on the next lookup.
+     */
+    private static class SubListIndex {
+
+        private final HashMap<HashMap<String, String>, HashMap<String, String>> records;
+        private ArrayList<HashMap<String, String>> subList;
+        private Set<String> keyNames;
+        private int indexed;
+
+        public SubListIndex() {
+            this.records = new HashMap();
+        }
+
+        public HashMap<String, String> find(ArrayList<HashMap<String, String>> subList, HashMap<String, String> keys) {
+            if (this.subList != subList || !keys.keySet().equals(keyNames)) {
+                this.subList = subList;
+                this.keyNames = keys.keySet();
+                this.records.clear();
+                this.indexed = 0;
+            }
+            int size = subList.size();
+            for (; indexed < size; indexed++) {
+                add(subList.get(indexed));
+            }
+            // The last record may have got its keys after it was indexed
+            if (size > 0) {
+                add(subList.get(size - 1));
+            }
+            return records.get(keys);
+        }
+
+        public void update(HashMap<String, String> record, HashMap<String, String> oldKeys) {
+            if (records.get(oldKeys) == record) {
+                records.remove(oldKeys);
+            }
+            add(record);
+        }
+
+        private void add(HashMap<String, String> record) {
+            HashMap<String, String> values = new HashMap();
+            for (String key : keyNames) {
+                String value = record.get(key);
+                if (value == null) {
+                    return;
+                }
+                values.put(key, value);
+            }
+            // Keep the first record, the same one a scan of the list would find
+            if (!records.containsKey(values)) {
+                records.put(values, record);
+            }
+        }
+    }
+
+    /**
+     * The state of one translation: the storage maps, the trackers and the
+     * file being read. Each call of readFile works on a context of its own,
+     * and so does the partial result of each ZIP entry or chunk read in
+     * parallel, so the reader only holds its settings.
+     */
+    private static final class ParseContext {
+
+        private final HashMap<String, HashMap<String, Object>> expMap = new HashMap<String, HashMap<String, Object>>(); // Storage maps
+        private final HashMap<String, HashMap<String, Object>> weatherMap = new HashMap<String, HashMap<String, Object>>();
+        private final HashMap<String, HashMap<String, Object>> soilMap = new HashMap<String, HashMap<String, Object>>();
+        private final HashMap<String, Integer> trtTracker = new HashMap<String, Integer>();
+        private final HashMap<String, String> idMap = new HashMap<String, String>();
+        private final HashMap<String, HashMap<String, SubListIndex>> subListIndexes = new HashMap<String, HashMap<String, SubListIndex>>(); // index -> path -> records
+        private final ArrayList<String> orderring = new ArrayList<String>();
+        private final UnknownVariableTracker unknownVars = new UnknownVariableTracker();
+        private final HashSet<String> fileUnknownVars = new HashSet<String>();
+        private final HashMap<List<String>, ColumnarSeries.Schema> seriesSchemas = new HashMap<List<String>, ColumnarSeries.Schema>();
+        private final StringPool stringPool; // Null if disabled
+        private final EntityIdGenerator idGenerator;
+        private final CSVInputHandler handler; // Only set while streaming
+        private String listSeparator = ",";
+        private String lastIndex;
+        private ArrayList<String[]> exnameSuffixes; // Only set for the partial results of parallel reading
+        private LinkedHashMap<String, String> chunkIds; // Only set for the partial results of chunks: new ID -> row key, null for complete rows
+        private int chunkLines; // Number of lines read by the partial result of a chunk
+        private boolean keepSeries; // Set for the partial results stored in the cache, see storeCached
+        private boolean replaying; // Set while the rows of a chunk are read again, see replayChunk
+        private HashMap<String, ArrayDeque<Integer>> replayTreatments; // Only set while replaying: ID -> exname numbers given by the chunk
+        private ReadCounts counts = new ReadCounts();
+
+        private ParseContext(EntityIdGenerator idGenerator, int stringPoolSize, CSVInputHandler handler) {
+            this.idGenerator = idGenerator;
+            this.stringPool = stringPoolSize > 0 ? new StringPool(stringPoolSize) : null;
+            this.handler = handler;
+        }
 
-        orderring = new ArrayList<String>();
-//        finalMap = new HashMap<String, HashMap<String, HashMap<String, Object>>>();
-        this.listSeparator = ",";
-//        finalMap.put("experiments", expMap);
-//        finalMap.put("weather", weatherMap);
-//        finalMap.put("soil", soilMap);
+        /**
+         * Get the pooled copy of a value read from the file.
+         */
+        private String pool(String value) {
+            return stringPool == null ? value : stringPool.get(value);
+        }
+
+        /**
+         * Get a new ID for the row key, or for a complete row if the key is
+         * null.
+         */
+        private String newId(String key) {
+            String id = idGenerator.nextId();
+            if (chunkIds != null) {
+                chunkIds.put(id, key);
+            }
+            return id;
+        }
+    }
+
+    /**
+     * Create the reader. Once it is set up, one reader may be used by many
+     * threads at the same time, since each translation keeps its state on
+     * its own.
+     */
+    public CSVInput() {
     }
 
     @Override
     public Map readFile(String fileName) throws Exception {
+        return readFile(fileName, (List<UnknownVariable>) null);
+    }
+
+    /**
+     * Read the CSV or ZIP file, and add the variables of this translation
+     * which are not known by the ACE path finder to the list, in the order
+     * they were first read, with where their values were put and how many of
+     * them were read. They are added even if the reading fails.
+     *
+     * @param fileName the path of the CSV or ZIP file
+     * @param unknownVariables the list receiving the unknown variables, or
+     * null
+     * @return the experiments, weather stations and soil profiles
+     * @throws Exception
+     */
+    public Map readFile(String fileName, List<UnknownVariable> unknownVariables) throws Exception {
+        ParseContext ctx = new ParseContext(idGenerator, stringPoolSize, null);
+        readFiles(ctx, fileName, unknownVariables);
+        if (metrics == null) {
+            return cleanUpFinalMap(ctx);
+        }
+        long start = System.nanoTime();
+        Map ret = cleanUpFinalMap(ctx);
+        metrics.recordCleanUp(System.nanoTime() - start);
+        return ret;
+    }
+
+    /**
+     * Read the CSV or ZIP file and hand over each experiment, weather station
+     * and soil profile to the handler as soon as it is finished, rather than
+     * returning all of them at the end.
+     *
+     * By default the entities are finished at the end of each CSV file (or
+     * each CSV entry of a ZIP file), since later rows may still refer to them.
+     * If the rows of each entity are known to be contiguous, use
+     * {@link #setContiguousRows(boolean)} to finish an entity as soon as a
+     * data row with another index is read. Then the memory usage is bounded
+     * by the largest entity instead of the largest file.
+     *
+     * @param fileName the path of the CSV or ZIP file
+     * @param handler the handler receiving the finished entities
+     * @throws Exception
+     */
+    public void readFile(String fileName, CSVInputHandler handler) throws Exception {
+        readFile(fileName, handler, null);
+    }
+
+    /**
+     * Read the CSV or ZIP file like {@link #readFile(String, CSVInputHandler)},
+     * and add the unknown variables of this translation to the list like
+     * {@link #readFile(String, List)}.
+     *
+     * @param fileName the path of the CSV or ZIP file
+     * @param handler the handler receiving the finished entities
+     * @param unknownVariables the list receiving the unknown variables, or
+     * null
+     * @throws Exception
+     */
+    public void readFile(String fileName, CSVInputHandler handler, List<UnknownVariable> unknownVariables) throws Exception {
+        readFiles(new ParseContext(idGenerator, stringPoolSize, handler), fileName, unknownVariables);
+    }
+
+    /**
+     * Set if the rows of each entity are contiguous in the input files, which
+     * means that an entity is finished once a data row with another index is
+     * read. Only used by {@link #readFile(String, CSVInputHandler)}; if an
+     * index appears again later, its rows are handed over as another entity.
+     *
+     * @param contiguousRows true if the rows of each entity are contiguous
+     */
+    public void setContiguousRows(boolean contiguousRows) {
+        this.contiguousRows = contiguousRows;
+    }
+
+    /**
+     * Set the generator of the internal IDs used to relate the rows of the
+     * same entity. The default one counts up from 1. The ZIP entries and
+     * chunks read in parallel use IDs of their own, so the generator is
+     * only called by one thread for a translation. It must be thread safe
+     * if the reader is used by several threads at the same time.
+     *
+     * @param idGenerator the ID generator
+     */
+    public void setIdGenerator(EntityIdGenerator idGenerator) {
+        this.idGenerator = idGenerator;
+    }
+
+    /**
+     * Set the number of threads used to read the CSV entries of a ZIP file.
+     * With more than one thread, each entry is read into a partial result on
+     * its own, and the partial results are merged in the order of the
+     * entries, so the result is the same as reading them one by one. The
+     * contiguous rows option does not apply to the entries read in parallel.
+     *
+     * @param threads the number of threads, 1 (the default) reads the entries
+     * one by one
+     */
+    public void setThreads(int threads) {
+        this.threads = Math.max(1, threads);
+    }
+
+    /**
+     * Set if the CSV files (not the entries of ZIP files) are memory mapped
+     * and split directly on their bytes, which only creates the strings of
+     * the values that are used. The result is the same as with the default
+     * reader. Files larger than 2 GB, or in a charset which can not be split
+     * on bytes, are read with the default reader.
+     *
+     * @param memoryMapped true to memory map the CSV files
+     */
+    public void setMemoryMapped(boolean memoryMapped) {
+        this.memoryMapped = memoryMapped;
+    }
+
+    /**
+     * Set the registry the counts and the times of this reader are added
+     * to, by default {@link TranslationMetrics#getDefault()}.
+     *
+     * @param metrics the registry, or null to not record them
+     */
+    public void setMetrics(TranslationMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * Set the size of the chunks a large CSV file (not an entry of a ZIP
+     * file) is split into. The chunks are memory mapped and read at the same
+     * time on the threads set by {@link #setThreads(int)}, each into a
+     * partial result which starts with the header in effect at the start of
+     * the chunk. The partial results are merged in the order of the chunks,
+     * so the result is the same as reading the file in one go: the rows of
+     * an entity which already showed up in an earlier chunk are read again
+     * on top of that entity while merging. The contiguous rows option does
+     * not apply to the files read in chunks.
+     *
+     * @param chunkSize the size of the chunks in bytes, at most 1 GB, 0 (the
+     * default) reads each file in one go
+     */
+    public void setChunkSize(long chunkSize) {
+        this.chunkSize = Math.max(0, Math.min(chunkSize, CSVFileChunks.MAX_CHUNK_SIZE));
+    }
+
+    /**
+     * Set the on-disk cache of the results of the CSV files and the CSV
+     * entries of ZIP files. An unchanged file or entry is then loaded from
+     * the cache instead of being read, and merged with the others the same
+     * way as the entries read in parallel, so the result is the same. The
+     * contiguous rows option does not apply to the files read with a cache.
+     *
+     * @param cache the cache, or null (the default) to read every file
+     */
+    public void setCache(TranslationCache cache) {
+        this.cache = cache;
+    }
+
+    /**
+     * Set the in-memory cache of the weather stations and soil profiles,
+     * which may be shared by many readers, by default
+     * {@link EntityCache#getDefault()}. The CSV files and CSV entries of ZIP
+     * files holding nothing else than weather stations and soil profiles are
+     * then read once, and their entities are given from the cache after
+     * that. The cached entities can not be changed. The contiguous rows
+     * option does not apply to the files read with a cache.
+     *
+     * @param entityCache the cache, or null to read every file
+     */
+    public void setEntityCache(EntityCache entityCache) {
+        this.entityCache = entityCache;
+    }
+
+    /**
+     * Set if the daily weather and the observed time series are stored by
+     * column. Each of them is then given as a read-only {@link ColumnarSeries}
+     * instead of an ArrayList of HashMaps, which takes far less memory for
+     * long series. The values are the same.
+     *
+     * @param columnarSeries true to store the series by column
+     */
+    public void setColumnarSeries(boolean columnarSeries) {
+        this.columnarSeries = columnarSeries;
+    }
+
+    /**
+     * Set the number of strings kept by the pool which shares the repeated
+     * values (like the station IDs, the crop codes or the variable names)
+     * between the cells, instead of keeping one copy per cell. The pool only
+     * holds short values, and pushes out the older ones when it is full.
+     *
+     * @param size the number of strings, 0 disables the pool
+     */
+    public void setStringPoolSize(int size) {
+        this.stringPoolSize = Math.max(0, size);
+    }
+
+    private void readFiles(ParseContext ctx, String fileName, List<UnknownVariable> unknownVariables) throws Exception {
+        try {
+            readEntries(ctx, fileName);
+        } finally {
+            if (unknownVariables != null) {
+                unknownVariables.addAll(ctx.unknownVars.toList());
+            }
+        }
+    }
+
+    private void readEntries(ParseContext ctx, String fileName) throws Exception {
         if (fileName.toUpperCase().endsWith("CSV")) {
-            readCSV(new FileInputStream(fileName));
+            File file = new File(fileName);
+            if (cache != null || entityCache != null) {
+                merge(ctx, readEntry(ctx.idGenerator, file));
+            } else {
+                readCSVFile(ctx, file);
+            }
+            flushEntities(ctx);
         } else if (fileName.toUpperCase().endsWith("ZIP")) {
             //Handle a ZipInputStream instead
             LOG.debug("Launching zip file handler");
             try (ZipFile zf = new ZipFile(fileName)) {
+                if (threads > 1) {
+                    readZipEntries(ctx, zf);
+                    return;
+                }
                 Enumeration<? extends ZipEntry> e = zf.entries();
                 while (e.hasMoreElements()) {
                     ZipEntry ze = (ZipEntry) e.nextElement();
-                    LOG.debug("Entering file: " + ze);
+                    LOG.debug("Entering file: {}", ze);
                     if (ze.getName().toLowerCase().endsWith(".csv")) {
-                        readCSV(zf.getInputStream(ze));
+                        if (cache != null || entityCache != null) {
+                            merge(ctx, readEntry(ctx.idGenerator, zf, ze));
+                        } else {
+                            readCSV(ctx, zf.getInputStream(ze));
+                        }
+                        flushEntities(ctx);
                     }
                 }
             }
         }
-        return cleanUpFinalMap();
     }
 
-    protected void readCSV(InputStream fileStream) throws Exception {
-        HeaderType section = HeaderType.UNKNOWN;
-        CSVHeader currentHeader = new CSVHeader();
-        String[] nextLine;
-        BufferedReader br = new BufferedReader(new InputStreamReader(fileStream));
+    /**
+     * Read the CSV entries of the ZIP file on a pool of worker threads. At
+     * most two entries per thread are read ahead of the merge, so the
+     * finished partial results do not pile up.
+     */
+    private void readZipEntries(ParseContext ctx, final ZipFile zf) throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        ArrayDeque<Future<ParseContext>> pending = new ArrayDeque<Future<ParseContext>>();
+        try {
+            Enumeration<? extends ZipEntry> e = zf.entries();
+            while (e.hasMoreElements()) {
+                final ZipEntry ze = (ZipEntry) e.nextElement();
+                if (!ze.getName().toLowerCase().endsWith(".csv")) {
+                    continue;
+                }
+                if (pending.size() >= threads * 2) {
+                    mergePartial(ctx, pending.poll());
+                }
+                LOG.debug("Entering file: {}", ze);
+                pending.add(pool.submit(new Callable<ParseContext>() {
+                    @Override
+                    public ParseContext call() throws Exception {
+                        // Local IDs, given IDs of the context by the merge
+                        return readEntry(new EntityIdGenerator.Counter(), zf, ze);
+                    }
+                }));
+            }
+            while (!pending.isEmpty()) {
+                mergePartial(ctx, pending.poll());
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private void readCSVFile(ParseContext ctx, File file) throws Exception {
+        if (chunkSize > 0 && file.length() > chunkSize && (ctx.handler == null || !contiguousRows)) {
+            readChunks(ctx, file);
+        } else if (memoryMapped && file.length() <= Integer.MAX_VALUE) {
+            readCSV(ctx, file);
+        } else {
+            readCSV(ctx, new FileInputStream(file));
+        }
+    }
+
+    /**
+     * Read the CSV file into a partial result, or load it from the caches.
+     */
+    private ParseContext readEntry(EntityIdGenerator ids, File file) throws Exception {
+        String key = TranslationCache.fingerprint(new FileInputStream(file));
+        ParseContext part = loadCached(key, ids);
+        if (part == null) {
+            part = newPartial(ids);
+            part.keepSeries = cache != null;
+            readCSVFile(part, file);
+            storeCached(key, part);
+        }
+        return part;
+    }
+
+    /**
+     * Read the ZIP entry into a partial result, or load it from the caches
+     * if there are any.
+     */
+    private ParseContext readEntry(EntityIdGenerator ids, ZipFile zf, ZipEntry ze) throws Exception {
+        if (cache == null && entityCache == null) {
+            ParseContext part = newPartial(ids);
+            readCSV(part, zf.getInputStream(ze));
+            return part;
+        }
+        String key = TranslationCache.fingerprint(zf.getInputStream(ze));
+        ParseContext part = loadCached(key, ids);
+        if (part == null) {
+            part = newPartial(ids);
+            part.keepSeries = cache != null;
+            readCSV(part, zf.getInputStream(ze));
+            storeCached(key, part);
+        }
+        return part;
+    }
+
+    /**
+     * Get the partial result cached under the key, with new IDs from the
+     * generator, or null if there is none.
+     */
+    private ParseContext loadCached(String key, EntityIdGenerator ids) {
+        EntityCache.Entry entities = entityCache == null ? null : entityCache.get(entityKey(key, columnarSeries));
+        if (entities != null) {
+            LOG.debug("Found the cached entities {}", key);
+            ParseContext part = newPartial(ids);
+            addEntities(part, entities);
+            return part;
+        }
+        TranslationCache.Entry entry = cache == null ? null : cache.load(key);
+        if (entry == null) {
+            return null;
+        }
+        LOG.debug("Found the cache entry {}", key);
+        ParseContext part = newPartial(ids);
+        HashMap<String, String> newIds = new HashMap<String, String>();
+        for (String id : entry.orderring) {
+            part.orderring.add(newId(newIds, id, ids));
+        }
+        for (Map.Entry<String, HashMap<String, Object>> e : entry.expMap.entrySet()) {
+            part.expMap.put(newId(newIds, e.getKey(), ids), e.getValue());
+        }
+        for (Map.Entry<String, HashMap<String, Object>> e : entry.weatherMap.entrySet()) {
+            part.weatherMap.put(newId(newIds, e.getKey(), ids), e.getValue());
+        }
+        for (Map.Entry<String, HashMap<String, Object>> e : entry.soilMap.entrySet()) {
+            part.soilMap.put(newId(newIds, e.getKey(), ids), e.getValue());
+        }
+        part.trtTracker.putAll(entry.trtTracker);
+        for (String[] suffix : entry.exnameSuffixes) {
+            part.exnameSuffixes.add(new String[]{newId(newIds, suffix[0], ids), suffix[1], suffix[2]});
+        }
+        for (String[] var : entry.unknownVars) {
+            part.unknownVars.get(var[0], var[1]).add(Integer.parseInt(var[2]));
+        }
+        compactEntities(part);
+        cacheEntities(key, part);
+        return part;
+    }
+
+    private static String newId(HashMap<String, String> newIds, String id, EntityIdGenerator ids) {
+        String ret = newIds.get(id);
+        if (ret == null) {
+            ret = ids.nextId();
+            newIds.put(id, ret);
+        }
+        return ret;
+    }
+
+    /**
+     * Store the partial result in the caches under the key. The on-disk
+     * cache gets it before its series are stored by column.
+     */
+    private void storeCached(String key, ParseContext part) {
+        if (cache != null) {
+            cache.store(key, new TranslationCache.Entry(part.expMap, part.weatherMap, part.soilMap, part.orderring,
+                    part.trtTracker, part.exnameSuffixes, getUnknownVars(part)));
+            compactEntities(part);
+        }
+        cacheEntities(key, part);
+    }
+
+    /**
+     * Keep the weather stations and soil profiles of the partial result in
+     * the entity cache, if the file holds nothing else, and use the cached
+     * ones in the partial result.
+     */
+    private void cacheEntities(String key, ParseContext part) {
+        if (entityCache == null || !part.trtTracker.isEmpty()) {
+            return;
+        }
+        for (HashMap<String, Object> ex : part.expMap.values()) {
+            // Only the links to the weather station and soil profile
+            HashSet<String> keys = new HashSet<String>(ex.keySet());
+            keys.removeAll(Arrays.asList("weather", "soil", "wst_id", "soil_id"));
+            if (!keys.isEmpty() || !(ex.containsKey("wst_id") || ex.containsKey("soil_id"))) {
+                return;
+            }
+        }
+        ArrayList<HashMap<String, Object>> weathers = new ArrayList<HashMap<String, Object>>();
+        for (Object wth : part.weatherMap.values()) {
+            HashMap<String, Object> weather = getEntity(part, wth, "weather", "wst_id");
+            if (weather != null) {
+                weathers.add(weather);
+            }
+        }
+        ArrayList<HashMap<String, Object>> soils = new ArrayList<HashMap<String, Object>>();
+        for (Object sl : part.soilMap.values()) {
+            HashMap<String, Object> soil = getEntity(part, sl, "soil", "soil_id");
+            if (soil != null) {
+                soils.add(soil);
+            }
+        }
+        boolean columnar = columnarSeries;
+        EntityCache.Entry entry = EntityCache.freeze(weathers, soils, getUnknownVars(part), columnar);
+        entityCache.put(entityKey(key, columnar), entry);
+        part.expMap.clear();
+        part.orderring.clear();
+        part.weatherMap.clear();
+        part.soilMap.clear();
+        part.unknownVars.clear();
+        addEntities(part, entry);
+    }
+
+    /**
+     * Get the key of the entities of a file in the entity cache, where the
+     * entities with the series stored by column are kept apart.
+     */
+    private static String entityKey(String key, boolean columnar) {
+        return columnar ? key + "/columnar" : key;
+    }
+
+    /**
+     * Add the cached entities to the partial result, with new IDs.
+     */
+    private static void addEntities(ParseContext part, EntityCache.Entry entry) {
+        for (HashMap<String, Object> weather : entry.weathers) {
+            HashMap<String, Object> stored = new HashMap<String, Object>();
+            stored.put("weather", weather);
+            part.weatherMap.put(part.idGenerator.nextId(), stored);
+        }
+        for (HashMap<String, Object> soil : entry.soils) {
+            HashMap<String, Object> stored = new HashMap<String, Object>();
+            stored.put("soil", soil);
+            part.soilMap.put(part.idGenerator.nextId(), stored);
+        }
+        for (String[] var : entry.unknownVars) {
+            part.unknownVars.get(var[0], var[1]).add(Integer.parseInt(var[2]));
+        }
+    }
+
+    private static ArrayList<String[]> getUnknownVars(ParseContext part) {
+        ArrayList<String[]> ret = new ArrayList<String[]>();
+        for (UnknownVariable var : part.unknownVars.toList()) {
+            ret.add(new String[]{var.getVariable(), var.getPath(), Integer.toString(var.getCount())});
+        }
+        return ret;
+    }
+
+    private void compactEntities(ParseContext part) {
+        for (HashMap<String, Object> weather : part.weatherMap.values()) {
+            compactSeries(part, weather, "weather", "dailyWeather");
+        }
+        for (HashMap<String, Object> ex : part.expMap.values()) {
+            compactSeries(part, ex, "observed", "timeSeries");
+        }
+    }
+
+    /**
+     * Create the context of the partial result of one ZIP entry or chunk,
+     * which keeps track of the exname suffixes so they can be renumbered by
+     * the merge.
+     */
+    private ParseContext newPartial(EntityIdGenerator idGenerator) {
+        ParseContext part = new ParseContext(idGenerator, stringPoolSize, null);
+        part.exnameSuffixes = new ArrayList<String[]>();
+        return part;
+    }
+
+    private void mergePartial(ParseContext ctx, Future<ParseContext> future) throws Exception {
+        merge(ctx, getPartial(future));
+        flushEntities(ctx);
+    }
+
+    private static ParseContext getPartial(Future<ParseContext> future) throws Exception {
+        try {
+            return future.get();
+        } catch (ExecutionException ex) {
+            if (ex.getCause() instanceof Exception) {
+                throw (Exception) ex.getCause();
+            }
+            throw ex;
+        }
+    }
+
+    /**
+     * Merge the partial result of one file into the context, as if the file
+     * had been read in the context. A partial result read with the ID
+     * generator of the context is merged as it is. One read with its own
+     * generator gets new IDs of the context, like a chunk, so the generator
+     * of the context is only used by the merging thread. The exname suffixes
+     * are renumbered after the treatments already counted here.
+     */
+    private void merge(ParseContext ctx, ParseContext part) {
+        ctx.unknownVars.addAll(part.unknownVars);
+        if (part.idGenerator == ctx.idGenerator) {
+            ctx.expMap.putAll(part.expMap);
+            ctx.weatherMap.putAll(part.weatherMap);
+            ctx.soilMap.putAll(part.soilMap);
+            ctx.orderring.addAll(part.orderring);
+            renumberTreatments(ctx, part, null);
+            return;
+        }
+        HashMap<String, String> ids = new HashMap<String, String>();
+        for (String local : part.orderring) {
+            ctx.orderring.add(newId(ids, local, ctx.idGenerator));
+        }
+        for (Map.Entry<String, HashMap<String, Object>> e : part.expMap.entrySet()) {
+            ctx.expMap.put(newId(ids, e.getKey(), ctx.idGenerator), e.getValue());
+        }
+        for (Map.Entry<String, HashMap<String, Object>> e : part.weatherMap.entrySet()) {
+            ctx.weatherMap.put(newId(ids, e.getKey(), ctx.idGenerator), e.getValue());
+        }
+        for (Map.Entry<String, HashMap<String, Object>> e : part.soilMap.entrySet()) {
+            ctx.soilMap.put(newId(ids, e.getKey(), ctx.idGenerator), e.getValue());
+        }
+        renumberTreatments(ctx, part, ids);
+    }
+
+    /**
+     * Renumber the exname suffixes of the merged partial result after the
+     * treatments already counted here.
+     *
+     * @param part the partial result
+     * @param ids the IDs of the context for the IDs of the partial result,
+     * or null if they are the same
+     */
+    private void renumberTreatments(ParseContext ctx, ParseContext part, HashMap<String, String> ids) {
+        HashMap<String, Integer> offsets = new HashMap<String, Integer>();
+        for (Map.Entry<String, Integer> entry : part.trtTracker.entrySet()) {
+            Integer offset = ctx.trtTracker.get(entry.getKey());
+            if (offset == null) {
+                offset = 0;
+            }
+            offsets.put(entry.getKey(), offset);
+            ctx.trtTracker.put(entry.getKey(), offset + entry.getValue());
+        }
+        for (String[] suffix : part.exnameSuffixes) {
+            // {index, exname, local treatment number}
+            HashMap<String, Object> ex = ctx.expMap.get(ids == null ? suffix[0] : ids.get(suffix[0]));
+            int treatment = Integer.parseInt(suffix[2]);
+            if (ex != null && ExnameUtil.addTreatment(suffix[1], treatment).equals(ex.get("exname"))) {
+                ex.put("exname", ExnameUtil.addTreatment(suffix[1], offsets.get(suffix[1]) + treatment));
+            }
+        }
+    }
+
+    private void readCSV(ParseContext ctx, InputStream fileStream) throws Exception {
+        BufferedReader br = new BufferedReader(new InputStreamReader(countBytes(fileStream)));
+
+        // Check to see if this is an international CSV. (;, vs ,.)
+        setListSeparator(ctx, br);
+        readRows(ctx, CSVRow.of(new CSVReader(br, ctx.listSeparator.charAt(0))));
+    }
+
+    /**
+     * Count the bytes read from the stream into the metrics.
+     */
+    private InputStream countBytes(InputStream in) {
+        if (metrics == null) {
+            return in;
+        }
+        final TranslationMetrics m = metrics;
+        return new FilterInputStream(in) {
+            @Override
+            public int read() throws IOException {
+                int b = super.read();
+                if (b >= 0) {
+                    m.recordBytesRead(1);
+                }
+                return b;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                int n = super.read(b, off, len);
+                if (n > 0) {
+                    m.recordBytesRead(n);
+                }
+                return n;
+            }
+        };
+    }
+
+    /**
+     * Read the CSV file through a memory mapping of it.
+     */
+    private void readCSV(ParseContext ctx, File file) throws Exception {
+        MappedByteBuffer buf;
+        try (FileInputStream in = new FileInputStream(file)) {
+            FileChannel channel = in.getChannel();
+            buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        if (metrics != null) {
+            metrics.recordBytesRead(buf.capacity());
+        }
+        Charset charset = Charset.defaultCharset();
+        BufferedReader br = new BufferedReader(new InputStreamReader(CSVTokenizer.asStream(buf), charset));
 
         // Check to see if this is an international CSV. (;, vs ,.)
-        setListSeparator(br);
-        CSVReader reader = new CSVReader(br, this.listSeparator.charAt(0));
+        setListSeparator(ctx, br);
+        char separator = ctx.listSeparator.charAt(0);
+        if (CSVTokenizer.supports(charset, separator)) {
+            readRows(ctx, new CSVTokenizer(buf, separator, charset));
+        } else {
+            readRows(ctx, CSVRow.of(new CSVReader(br, separator)));
+        }
+    }
 
+    private void readRows(ParseContext ctx, CSVRow nextLine) throws Exception {
+        readRows(ctx, nextLine, null);
+    }
+
+    /**
+     * Read the lines of one file from the row source, or from the chunks of
+     * the file if they are given.
+     */
+    private void readRows(ParseContext ctx, CSVRow nextLine, CSVFileChunks chunks) throws Exception {
         // Clear out the idMap for every file created.
-        idMap.clear();
+        ctx.idMap.clear();
+        ctx.subListIndexes.clear();
+        ctx.lastIndex = null;
+        ctx.counts = new ReadCounts();
+        ctx.fileUnknownVars.clear();
+        long poolHits = ctx.stringPool == null ? 0 : ctx.stringPool.getHits();
+        long poolMisses = ctx.stringPool == null ? 0 : ctx.stringPool.getMisses();
+        long start = System.nanoTime();
+        int ln;
+        if (chunks == null) {
+            ln = readLines(ctx, nextLine, new CSVHeader(), HeaderType.UNKNOWN, null);
+            nextLine.close();
+        } else {
+            ln = readChunks(ctx, chunks);
+        }
+        if (ctx.stringPool != null) {
+            ctx.counts.poolHits += ctx.stringPool.getHits() - poolHits;
+            ctx.counts.poolMisses += ctx.stringPool.getMisses() - poolMisses;
+        }
+        if (metrics != null) {
+            metrics.recordRead(ctx.counts, System.nanoTime() - start);
+        }
+        if (columnarSeries && !ctx.keepSeries) {
+            // The entities of the file are finished, since the next file starts with new IDs
+            for (String index : ctx.idMap.values()) {
+                compactSeries(ctx, ctx.weatherMap.get(index), "weather", "dailyWeather");
+                compactSeries(ctx, ctx.expMap.get(index), "observed", "timeSeries");
+            }
+        }
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("Read {} lines, {} data rows and {} cells in {} ms, unknown variables: {}",
+                    ln, ctx.counts.rows, ctx.counts.cells, (System.nanoTime() - start) / 1000000, ctx.fileUnknownVars);
+            if (ctx.stringPool != null) {
+                long lookups = ctx.counts.poolHits + ctx.counts.poolMisses;
+                LOG.debug("String pool hits: {} of {} ({}%)", ctx.counts.poolHits, lookups,
+                        lookups == 0 ? 0 : ctx.counts.poolHits * 100 / lookups);
+            }
+        }
+    }
+
+    /**
+     * Read the lines, starting with the given header and section.
+     *
+     * @param keys the row keys of the data lines to read, or null to read
+     * all the lines
+     * @return the number of lines
+     */
+    private int readLines(ParseContext ctx, CSVRow nextLine, CSVHeader currentHeader, HeaderType section, Set<String> keys) throws Exception {
+        boolean trace = LOG.isTraceEnabled();
         int ln = 0;
 
-        while ((nextLine = reader.readNext()) != null) {
+        while (nextLine.next()) {
             ln++;
-            LOG.debug("Line number: " + ln);
-            if (nextLine[0].startsWith("!")) {
-                LOG.debug("Found a comment line");
+            if (trace) {
+                LOG.trace("Line number: {}", ln);
+            }
+            if (nextLine.startsWith(0, '!')) {
+                ctx.counts.comments++;
                 continue;
-            } else if (nextLine[0].startsWith("#")) {
-                LOG.debug("Found a summary header line");
+            } else if (nextLine.startsWith(0, '#')) {
+                ctx.counts.headers++;
                 section = HeaderType.SUMMARY;
-                currentHeader = parseHeaderLine(nextLine);
-            } else if (nextLine[0].startsWith("%")) {
-                LOG.debug("Found a series header line");
+                currentHeader = parseHeaderLine(ctx, nextLine.toArray());
+            } else if (nextLine.startsWith(0, '%')) {
+                ctx.counts.headers++;
                 section = HeaderType.SERIES;
-                currentHeader = parseHeaderLine(nextLine);
-            } else if (nextLine[0].startsWith("*")) {
-                LOG.debug("Found a complete experiment line");
+                currentHeader = parseHeaderLine(ctx, nextLine.toArray());
+            } else if (nextLine.startsWith(0, '*')) {
                 section = HeaderType.SUMMARY;
-                parseDataLine(currentHeader, section, nextLine, true);
-            } else if (nextLine[0].startsWith("&")) {
-                LOG.debug("Found a DOME line, skipping");
-            } else if (nextLine.length == 1) {
-                LOG.debug("Found a blank line, skipping");
+                if (keys == null) {
+                    ctx.counts.rows++;
+                    parseDataLine(ctx, currentHeader, section, nextLine, true);
+                }
+            } else if (nextLine.startsWith(0, '&')) {
+                // DOME line, skipping
+                ctx.counts.dome++;
+            } else if (nextLine.size() == 1) {
+                // Blank line, skipping
+                ctx.counts.blank++;
             } else {
                 boolean isBlank = true;
                 // Check the nextLine array for all blanks
-                int nlLen = nextLine.length;
+                int nlLen = nextLine.size();
                 for (int i = 0; i < nlLen; i++) {
-                    if (!nextLine[i].equals("")) {
+                    if (!nextLine.isEmpty(i)) {
                         isBlank = false;
                         break;
                     }
                 }
-                if (!isBlank) {
-                    LOG.debug("Found a data line with [" + nextLine[0] + "] as the index");
-                    parseDataLine(currentHeader, section, nextLine, false);
-                } else {
-                    LOG.debug("Found a blank line, skipping");
+                if (isBlank) {
+                    ctx.counts.blank++;
+                } else if (keys == null || keys.contains(nextLine.get(0))) {
+                    if (trace) {
+                        LOG.trace("Found a data line with [{}] as the index", nextLine.get(0));
+                    }
+                    ctx.counts.rows++;
+                    parseDataLine(ctx, currentHeader, section, nextLine, false);
                 }
             }
         }
-        reader.close();
+        return ln;
     }
 
-    protected CSVHeader parseHeaderLine(String[] data) {
+    /**
+     * Read a large CSV file in chunks, see {@link #setChunkSize(long)}.
+     */
+    private void readChunks(ParseContext ctx, File file) throws Exception {
+        try (FileInputStream in = new FileInputStream(file)) {
+            FileChannel channel = in.getChannel();
+            Charset charset = Charset.defaultCharset();
+            ByteBuffer head = CSVFileChunks.map(channel, 0, Math.min(channel.size(), Integer.MAX_VALUE));
+
+            // Check to see if this is an international CSV. (;, vs ,.)
+            setListSeparator(ctx, new BufferedReader(new InputStreamReader(CSVTokenizer.asStream(head), charset)));
+            char separator = ctx.listSeparator.charAt(0);
+            if (CSVTokenizer.supports(charset, separator)) {
+                if (metrics != null) {
+                    metrics.recordBytesRead(channel.size());
+                }
+                readRows(ctx, null, new CSVFileChunks(channel, separator, charset));
+            } else {
+                readCSV(ctx, in);
+            }
+        }
+    }
+
+    /**
+     * Read the chunks of the file on the thread pool, each into a partial
+     * result, and merge the partial results in the order of the chunks.
+     *
+     * @return the number of lines
+     */
+    private int readChunks(ParseContext ctx, final CSVFileChunks chunks) throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        ArrayDeque<Future<ParseContext>> pending = new ArrayDeque<Future<ParseContext>>();
+        ArrayDeque<CSVFileChunks.Chunk> pendingChunks = new ArrayDeque<CSVFileChunks.Chunk>();
+        int ln = 0;
+        try {
+            chunks.split(chunkSize, pool);
+            for (final CSVFileChunks.Chunk chunk : chunks.getChunks()) {
+                if (pending.size() >= threads * 2) {
+                    ln += mergeChunk(ctx, getPartial(pending.poll()), pendingChunks.poll(), chunks);
+                }
+                pendingChunks.add(chunk);
+                pending.add(pool.submit(new Callable<ParseContext>() {
+                    @Override
+                    public ParseContext call() throws Exception {
+                        ParseContext part = newPartial(new EntityIdGenerator.Counter());
+                        part.chunkIds = new LinkedHashMap<String, String>();
+                        part.chunkLines = readLines(part, chunks.open(chunk), getHeader(part, chunk), getSection(chunk), null);
+                        if (part.stringPool != null) {
+                            part.counts.poolHits = part.stringPool.getHits();
+                            part.counts.poolMisses = part.stringPool.getMisses();
+                        }
+                        return part;
+                    }
+                }));
+            }
+            while (!pending.isEmpty()) {
+                ln += mergeChunk(ctx, getPartial(pending.poll()), pendingChunks.poll(), chunks);
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+        return ln;
+    }
+
+    /**
+     * Merge the partial result of a chunk into the context, as if the rows
+     * of the chunk had been read in the context. The new row keys of the
+     * chunk get new IDs in the order they were found. The rows of the keys
+     * already found in the earlier chunks are read again on top of their
+     * entities, see {@link #replayChunk}.
+     *
+     * @return the number of lines of the chunk
+     */
+    private int mergeChunk(ParseContext ctx, ParseContext part, CSVFileChunks.Chunk chunk, CSVFileChunks chunks) throws Exception {
+        HashMap<String, String> ids = new HashMap<String, String>();
+        HashSet<String> replayIds = new HashSet<String>();
+        HashSet<String> replayKeys = new HashSet<String>();
+        for (Map.Entry<String, String> entry : part.chunkIds.entrySet()) {
+            String key = entry.getValue();
+            String id = key == null ? null : ctx.idMap.get(key);
+            if (id != null) {
+                replayIds.add(entry.getKey());
+                replayKeys.add(key);
+            } else {
+                id = ctx.idGenerator.nextId();
+                if (key != null) {
+                    ctx.idMap.put(key, id);
+                }
+            }
+            ids.put(entry.getKey(), id);
+        }
+        ctx.counts.add(part.counts);
+        ctx.fileUnknownVars.addAll(part.fileUnknownVars);
+        ctx.unknownVars.addAll(part.unknownVars);
+
+        HashSet<String> existing = new HashSet<String>(); // Found again with an experiment already
+        if (!replayIds.isEmpty()) {
+            for (String key : replayKeys) {
+                String id = ctx.idMap.get(key);
+                if (ctx.expMap.containsKey(id)) {
+                    existing.add(id);
+                }
+            }
+            replayChunk(ctx, part, chunk, chunks, ids, replayIds, replayKeys);
+        }
+        for (String local : part.chunkIds.keySet()) {
+            if (replayIds.contains(local)) {
+                continue;
+            }
+            String id = ids.get(local);
+            if (part.expMap.containsKey(local)) {
+                ctx.expMap.put(id, part.expMap.get(local));
+            }
+            if (part.weatherMap.containsKey(local)) {
+                ctx.weatherMap.put(id, part.weatherMap.get(local));
+            }
+            if (part.soilMap.containsKey(local)) {
+                ctx.soilMap.put(id, part.soilMap.get(local));
+            }
+            if (part.subListIndexes.containsKey(local)) {
+                ctx.subListIndexes.put(id, part.subListIndexes.get(local));
+            }
+        }
+        for (String local : part.orderring) {
+            String id = ids.get(local);
+            if (!replayIds.contains(local) || (!existing.contains(id) && ctx.expMap.containsKey(id))) {
+                ctx.orderring.add(id);
+            }
+        }
+        renumberTreatments(ctx, part, ids);
+        return part.chunkLines;
+    }
+
+    /**
+     * Read the rows of the chunk again for the given keys, on top of the
+     * entities of the context. The rows were already counted by the partial
+     * result, and the exnames get the same treatment numbers as in the
+     * partial result, so they are renumbered with the others.
+     */
+    private void replayChunk(ParseContext ctx, ParseContext part, CSVFileChunks.Chunk chunk, CSVFileChunks chunks,
+            HashMap<String, String> ids, HashSet<String> replayIds, HashSet<String> replayKeys) throws Exception {
+        ctx.replayTreatments = new HashMap<String, ArrayDeque<Integer>>();
+        for (String[] suffix : part.exnameSuffixes) {
+            if (replayIds.contains(suffix[0])) {
+                String id = ids.get(suffix[0]);
+                ArrayDeque<Integer> treatments = ctx.replayTreatments.get(id);
+                if (treatments == null) {
+                    treatments = new ArrayDeque<Integer>();
+                    ctx.replayTreatments.put(id, treatments);
+                }
+                treatments.add(Integer.valueOf(suffix[2]));
+            }
+        }
+        ReadCounts saved = ctx.counts;
+        ctx.counts = new ReadCounts();
+        ctx.replaying = true;
+        try {
+            readLines(ctx, chunks.open(chunk), getHeader(ctx, chunk), getSection(chunk), replayKeys);
+        } finally {
+            ctx.replaying = false;
+            ctx.replayTreatments = null;
+            ctx.counts = saved;
+        }
+    }
+
+    /**
+     * Get the header in effect at the start of the chunk.
+     */
+    private CSVHeader getHeader(ParseContext ctx, CSVFileChunks.Chunk chunk) {
+        return chunk.header == null ? new CSVHeader() : parseHeaderLine(ctx, chunk.header);
+    }
+
+    private static HeaderType getSection(CSVFileChunks.Chunk chunk) {
+        switch (chunk.section) {
+            case '%':
+                return HeaderType.SERIES;
+            case '#':
+            case '*':
+                return HeaderType.SUMMARY;
+            default:
+                return HeaderType.UNKNOWN;
+        }
+    }
+
+    private CSVHeader parseHeaderLine(ParseContext ctx, String[] data) {
         ArrayList<String> h = new ArrayList<String>();
         ArrayList<Integer> sc = new ArrayList<Integer>();
         String defPath = null;
@@ -246,7 +1327,7 @@ public class CSVInput implements TranslatorInput {
                 sc.add(i);
             }
             if (data[i].trim().length() != 0) {
-                h.add(data[i]);
+                h.add(ctx.pool(data[i]));
             }
             if (defPath == null) {
                 defPath = AcePathfinderUtil.getInstance().getPath(data[i].trim());
@@ -256,241 +1337,224 @@ public class CSVInput implements TranslatorInput {
                 }
             }
         }
-        return new CSVHeader(h, sc, defPath, defPathType);
+        return new CSVHeader(h, sc, defPath, defPathType, ctx.stringPool);
     }
 
-    protected void parseDataLine(CSVHeader header, HeaderType section, String[] data, boolean isComplete) throws Exception {
-        ArrayList<String> headers = header.getHeaders();
-        int l = headers.size();
+    private void parseDataLine(ParseContext ctx, CSVHeader header, HeaderType section, CSVRow data, boolean isComplete) throws Exception {
+        CSVColumn[] columns = header.getColumns();
+        int l = columns.length;
         String dataIndex;
-        dataIndex = UUID.randomUUID().toString();
         HashMap<String, String> subListKeys = header.getSubListKeys(data);
 
-        if (!isComplete) {
-            if (idMap.containsKey(data[0])) {
-                dataIndex = idMap.get(data[0]);
-            } else {
-                idMap.put(data[0], dataIndex);
+        if (isComplete) {
+            dataIndex = ctx.newId(null);
+        } else {
+            dataIndex = ctx.idMap.get(data.get(0));
+            if (dataIndex == null) {
+                dataIndex = ctx.newId(data.get(0));
+                ctx.idMap.put(data.get(0), dataIndex);
             }
         }
-        if (data[1].toLowerCase().equals("event")) {
+        if (ctx.handler != null && contiguousRows) {
+            if (ctx.lastIndex != null && !ctx.lastIndex.equals(dataIndex)) {
+                flushEntity(ctx, ctx.lastIndex);
+            }
+            ctx.lastIndex = dataIndex;
+        }
+        if (data.equalsLowerCase(1, "event")) {
+            ctx.counts.events++;
             if (header.getDefPath() != null && !"".equals(header.getDefPath())) {
-                for (int i = 3; i < data.length; i++) {
-                    String var = data[i].toLowerCase();
+                for (int i = 3; i < data.size(); i++) {
+                    String var = data.get(i).toLowerCase();
                     i++;
-                    if (i < data.length) {
-                        String val = data[i];
-                        LOG.debug("Trimmed var: " + var.trim() + " and length: " + var.trim().length());
+                    if (i < data.size()) {
+                        String val = data.get(i);
                         if (var.trim().length() != 0 && val.trim().length() != 0) {
-                            LOG.debug("INSERTING! Var: " + var + " Val: " + val);
-                            insertValue(dataIndex, var, val, header, subListKeys);
+                            if (LOG.isTraceEnabled()) {
+                                LOG.trace("Inserting event variable [{}] with value [{}]", var, val);
+                            }
+                            insertValue(ctx, dataIndex, header.getColumn(var), val, header, subListKeys);
                         }
                     }
                 }
             } else {
-                HashMap event = insertUnknownEvent(dataIndex, data[2]);
-                for (int i = 3; i < data.length; i++) {
-                    String var = data[i].toLowerCase();
+                HashMap event = insertUnknownEvent(ctx, dataIndex, data.get(2));
+                for (int i = 3; i < data.size(); i++) {
+                    String var = data.get(i).toLowerCase();
                     i++;
-                    if (i < data.length) {
-                        String value = data[i];
-                        LOG.debug("Trimmed var: " + var.trim() + " and length: " + var.trim().length());
-                        if (pathfinder.isDate(var)) {
-                            LOG.debug("Converting date from: " + value);
-                            value = value.replace("/", "-");
-                            DateFormat f = new SimpleDateFormat("yyyymmdd");
-                            Date d = new SimpleDateFormat("yyyy-mm-dd").parse(value);
-                            value = f.format(d);
-                            LOG.debug("Converting date to: " + value);
-
+                    if (i < data.size()) {
+                        String value = data.get(i);
+                        if (header.getColumn(var).isDate) {
+                            ctx.counts.dates++;
+                            value = DateConverter.toAceDate(value);
                         }
                         if (var.trim().length() != 0 && value.trim().length() != 0) {
-                            LOG.debug("INSERTING! Var: " + var + " Val: " + value);
-                            event.put(var, value);
+                            if (LOG.isTraceEnabled()) {
+                                LOG.trace("Inserting event variable [{}] with value [{}]", var, value);
+                            }
+                            ctx.counts.cells++;
+                            event.put(ctx.pool(var), ctx.pool(value));
                         }
                     }
                 }
             }
-            LOG.debug("Leaving event loop");
-        } else if (header.getSkippedColumns().isEmpty()) {
-            for (int i = 0; i < l; i++) {
-                if (!data[i + 1].trim().equals("")) {
-                    insertValue(dataIndex, headers.get(i), data[i + 1], header, subListKeys);
-                }
-            }
         } else {
-            ArrayList<Integer> skipped = header.getSkippedColumns();
             for (int i = 0; i < l; i++) {
-                if (!data[i + 1].trim().equals("")) {
-                    if (!skipped.contains(i + 1)) {
-                        insertValue(dataIndex, headers.get(i), data[i + 1], header, subListKeys);
+                if (!data.isBlank(i + 1)) {
+                    if (!columns[i].skipped) {
+                        insertValue(ctx, dataIndex, columns[i], data.get(i + 1), header, subListKeys);
                     }
                 }
             }
         }
     }
-    
-    protected HashMap<String, String> insertUnknownEvent(String index, String eventType) {
-        insertIndex(expMap, index, true);
-        HashMap<String, Object> currentMap = expMap.get(index);
+
+    private HashMap<String, String> insertUnknownEvent(ParseContext ctx, String index, String eventType) {
+        insertIndex(ctx, ctx.expMap, index, true);
+        HashMap<String, Object> currentMap = ctx.expMap.get(index);
         ArrayList<HashMap<String, String>> events = MapUtil.getBucket(currentMap, "management").getDataList();
         HashMap<String, String> event = new HashMap();
-        event.put("event", eventType);
+        event.put("event", ctx.pool(eventType));
         events.add(event);
         return event;
     }
 
-    protected void insertValue(String index, String variable, String value, CSVHeader header, HashMap<String, String> subListKeys) throws Exception {
+    private void insertValue(ParseContext ctx, String index, CSVColumn column, String value, CSVHeader header, HashMap<String, String> subListKeys) throws Exception {
         try {
-            String var = variable.toLowerCase();
-            HashMap<String, HashMap<String, Object>> topMap = null;
-            if (var.equals("wst_id") || var.equals("soil_id")) {
-                insertIndex(expMap, index, true);
-                HashMap<String, Object> temp = expMap.get(index);
+            String var = column.var;
+            if (column.isId) {
+                value = ctx.pool(value);
+                insertIndex(ctx, ctx.expMap, index, true);
+                HashMap<String, Object> temp = ctx.expMap.get(index);
                 temp.put(var, value);
-            } else if (var.equals("exname")) {
+            } else if (column.isExname) {
                 Integer i = 0;
-                if (trtTracker.containsKey(value)) {
-                    i = trtTracker.get(value);
+                if (ctx.replaying) {
+                    i = ctx.replayTreatments.get(index).poll();
+                } else {
+                    if (ctx.trtTracker.containsKey(value)) {
+                        i = ctx.trtTracker.get(value);
+                    }
+                    i = i + 1;
+                    ctx.trtTracker.put(value, i);
+                    if (ctx.exnameSuffixes != null) {
+                        ctx.exnameSuffixes.add(new String[]{index, value, i.toString()});
+                    }
                 }
-                i = i + 1;
-                trtTracker.put(value, i);
-                value = value + "_" + i;
+                value = ExnameUtil.addTreatment(value, i);
+            } else if (column.isDate) {
+                ctx.counts.dates++;
+                value = ctx.pool(DateConverter.toAceDate(value));
             } else {
-                if (pathfinder.isDate(var)) {
-                    LOG.debug("Converting date from: " + value);
-                    value = value.replace("/", "-");
-                    DateFormat f = new SimpleDateFormat("yyyymmdd");
-                    Date d = new SimpleDateFormat("yyyy-mm-dd").parse(value);
-                    value = f.format(d);
-                    LOG.debug("Converting date to: " + value);
-
-                }
+                value = ctx.pool(value);
             }
-            boolean isExperimentMap = false;
-            String path = null;
-            switch (AcePathfinderUtil.getVariableType(var)) {
-                case WEATHER:
-                    topMap = weatherMap;
-                    break;
-                case SOIL:
-                    topMap = soilMap;
-                    break;
-                case UNKNOWN:
-                    switch (header.getDefPathType()) {
-                        case WEATHER:
-                            topMap = weatherMap;
-                            break;
-                        case SOIL:
-                            topMap = soilMap;
-                            break;
-                    }
-                    path = header.getDefPath();
-                    if (!unknowVars.contains(var)) {
+            ctx.counts.cells++;
+            if (column.isUnknown && !ctx.replaying) {
+                ctx.counts.unknown++;
+                if (column.unknown == null) {
+                    column.unknown = ctx.unknownVars.get(var, column.path);
+                    ctx.fileUnknownVars.add(var);
+                    if (column.unknown.getCount() == 0) {
+                        String path = header.getDefPath();
                         if (path != null || "".equals(path)) {
                             LOG.warn("Putting unknow variable into [{}] section: [{}]", path, var);
                         } else {
                             LOG.warn("Putting unknow variable into root: [{}]", var);
                         }
-                        unknowVars.add(var);
-                    }
-                    if (topMap != null) {
-                        break;
                     }
+                }
+                column.unknown.add(1);
+            }
+            HashMap<String, HashMap<String, Object>> topMap;
+            boolean isExperimentMap = false;
+            switch (column.topType) {
+                case WEATHER:
+                    topMap = ctx.weatherMap;
+                    break;
+                case SOIL:
+                    topMap = ctx.soilMap;
+                    break;
                 default:
                     isExperimentMap = true;
-                    topMap = expMap;
+                    topMap = ctx.expMap;
                     break;
             }
-            insertIndex(topMap, index, isExperimentMap);
+            insertIndex(ctx, topMap, index, isExperimentMap);
             HashMap<String, Object> currentMap = topMap.get(index);
-            path = AcePathfinderUtil.getInstance().getPath(var);
-            if (!subListKeys.isEmpty() && (header.getDefPath().equals(path) || path == null || path.isEmpty())) {
-                path = header.getDefPath();
+            String[] paths = column.subListPath;
+            if (paths != null && !subListKeys.isEmpty()) {
                 ArrayList<HashMap<String, String>> subList;
-                String[] paths = path.split("@");
                 HashMap<String, Object> tmp = (HashMap<String, Object>) currentMap.get(paths[0]);
                 if (tmp != null) {
                     subList = (ArrayList<HashMap<String, String>>) tmp.get(paths[1]);
-                    if (subList == null) {
-                        subList = new ArrayList();
-                    }
-                    for (HashMap<String, String> record : subList) {
-                        boolean found = true;
-                        for (String key : subListKeys.keySet()) {
-                            if (!subListKeys.get(key).equals(record.get(key))) {
-                                found = false;
-                                break;
-                            }
-                        }
-                        if (found) {
+                    if (subList != null) {
+                        SubListIndex subListIndex = getSubListIndex(ctx, index, column.path);
+                        HashMap<String, String> record = subListIndex.find(subList, subListKeys);
+                        if (record != null) {
                             record.put(var, value);
+                            if (subListKeys.containsKey(var)) {
+                                subListIndex.update(record, subListKeys);
+                            }
                             return;
                         }
                     }
                 }
             }
-            AcePathfinderUtil.insertValue(currentMap, var, value, path, true);
+            AcePathfinderUtil.insertValue(currentMap, var, value, column.path, true);
         } catch (Exception ex) {
             throw new Exception(ex);
         }
     }
 
-    protected void insertIndex(HashMap<String, HashMap<String, Object>> map, String index, boolean isExperimentMap) {
+    private SubListIndex getSubListIndex(ParseContext ctx, String index, String path) {
+        HashMap<String, SubListIndex> indexes = ctx.subListIndexes.get(index);
+        if (indexes == null) {
+            indexes = new HashMap<String, SubListIndex>();
+            ctx.subListIndexes.put(index, indexes);
+        }
+        SubListIndex subListIndex = indexes.get(path);
+        if (subListIndex == null) {
+            subListIndex = new SubListIndex();
+            indexes.put(path, subListIndex);
+        }
+        return subListIndex;
+    }
+
+    private void insertIndex(ParseContext ctx, HashMap<String, HashMap<String, Object>> map, String index, boolean isExperimentMap) {
         if (!map.containsKey(index)) {
             map.put(index, new HashMap<String, Object>());
-            if (isExperimentMap) {
-                orderring.add(index);
+            if (isExperimentMap && !ctx.replaying) {
+                ctx.orderring.add(index);
             }
 
         }
     }
 
-    protected HashMap<String, ArrayList<HashMap<String, Object>>> cleanUpFinalMap() {
+    private HashMap<String, ArrayList<HashMap<String, Object>>> cleanUpFinalMap(ParseContext ctx) {
         HashMap<String, ArrayList<HashMap<String, Object>>> base = new HashMap<String, ArrayList<HashMap<String, Object>>>();
         ArrayList<HashMap<String, Object>> experiments = new ArrayList<HashMap<String, Object>>();
         ArrayList<HashMap<String, Object>> weathers = new ArrayList<HashMap<String, Object>>();
         ArrayList<HashMap<String, Object>> soils = new ArrayList<HashMap<String, Object>>();
 
-        for (String id : orderring) {
+        for (String id : ctx.orderring) {
             //for (HashMap<String, Object> ex : expMap.values()) {
-            HashMap<String, Object> ex = expMap.get(id);
-            ex.remove("weather");
-            ex.remove("soil");
-            if (ex.size() == 2 && ex.containsKey("wst_id") && ex.containsKey("soil_id")) {
-            } else if (ex.size() == 1 && (ex.containsKey("wst_id") || ex.containsKey("soil_id"))) {
-            } else {
+            HashMap<String, Object> ex = getExperiment(ctx, ctx.expMap.get(id));
+            if (ex != null) {
                 experiments.add(ex);
             }
         }
 
-        for (Object wth : weatherMap.values()) {
-            if (wth instanceof HashMap) {
-                @SuppressWarnings("unchecked")
-                HashMap<String, Object> temp = (HashMap<String, Object>) wth;
-                if (temp.containsKey("weather")) {
-                    @SuppressWarnings("unchecked")
-                    HashMap<String, Object> weather = (HashMap<String, Object>) temp.get("weather");
-                    if (weather.size() == 1 && weather.containsKey("wst_id")) {
-                    } else {
-                        weathers.add(weather);
-                    }
-                }
+        for (Object wth : ctx.weatherMap.values()) {
+            HashMap<String, Object> weather = getEntity(ctx, wth, "weather", "wst_id");
+            if (weather != null) {
+                weathers.add(weather);
             }
         }
 
-        for (Object sl : soilMap.values()) {
-            if (sl instanceof HashMap) {
-                @SuppressWarnings("unchecked")
-                HashMap<String, Object> temp = (HashMap<String, Object>) sl;
-                if (temp.containsKey("soil")) {
-                    @SuppressWarnings("unchecked")
-                    HashMap<String, Object> soil = (HashMap<String, Object>) temp.get("soil");
-                    if (soil.size() == 1 && soil.containsKey("soil_id")) {
-                    } else {
-                        soils.add(soil);
-                    }
-                }
+        for (Object sl : ctx.soilMap.values()) {
+            HashMap<String, Object> soil = getEntity(ctx, sl, "soil", "soil_id");
+            if (soil != null) {
+                soils.add(soil);
             }
         }
 
@@ -500,15 +1564,132 @@ public class CSVInput implements TranslatorInput {
         return base;
     }
 
-    protected void setListSeparator(BufferedReader in) throws Exception {
+    /**
+     * Hand over all the entities read so far to the handler and clear them,
+     * if the reader is streaming.
+     */
+    private void flushEntities(ParseContext ctx) throws Exception {
+        if (ctx.handler == null) {
+            return;
+        }
+        for (String id : ctx.orderring) {
+            HashMap<String, Object> ex = getExperiment(ctx, ctx.expMap.get(id));
+            if (ex != null) {
+                ctx.handler.experiment(ex);
+            }
+        }
+        for (Object wth : ctx.weatherMap.values()) {
+            HashMap<String, Object> weather = getEntity(ctx, wth, "weather", "wst_id");
+            if (weather != null) {
+                ctx.handler.weather(weather);
+            }
+        }
+        for (Object sl : ctx.soilMap.values()) {
+            HashMap<String, Object> soil = getEntity(ctx, sl, "soil", "soil_id");
+            if (soil != null) {
+                ctx.handler.soil(soil);
+            }
+        }
+        ctx.expMap.clear();
+        ctx.weatherMap.clear();
+        ctx.soilMap.clear();
+        ctx.orderring.clear();
+        ctx.subListIndexes.clear();
+        ctx.lastIndex = null;
+    }
+
+    /**
+     * Hand over the entities stored under the given index to the handler and
+     * remove them from the storage maps.
+     */
+    private void flushEntity(ParseContext ctx, String index) throws Exception {
+        ctx.subListIndexes.remove(index);
+        HashMap<String, Object> ex = ctx.expMap.remove(index);
+        if (ex != null) {
+            // The finished index is normally the last one added
+            ctx.orderring.remove(ctx.orderring.lastIndexOf(index));
+            ex = getExperiment(ctx, ex);
+            if (ex != null) {
+                ctx.handler.experiment(ex);
+            }
+        }
+        HashMap<String, Object> weather = getEntity(ctx, ctx.weatherMap.remove(index), "weather", "wst_id");
+        if (weather != null) {
+            ctx.handler.weather(weather);
+        }
+        HashMap<String, Object> soil = getEntity(ctx, ctx.soilMap.remove(index), "soil", "soil_id");
+        if (soil != null) {
+            ctx.handler.soil(soil);
+        }
+    }
+
+    /**
+     * Clean up the experiment, return null if it only holds the links to the
+     * weather station and soil profile.
+     */
+    private HashMap<String, Object> getExperiment(ParseContext ctx, HashMap<String, Object> ex) {
+        ex.remove("weather");
+        ex.remove("soil");
+        compactSeries(ctx, ex, "observed", "timeSeries");
+        if (ex.size() == 2 && ex.containsKey("wst_id") && ex.containsKey("soil_id")) {
+            return null;
+        } else if (ex.size() == 1 && (ex.containsKey("wst_id") || ex.containsKey("soil_id"))) {
+            return null;
+        } else {
+            return ex;
+        }
+    }
+
+    /**
+     * Get the weather or soil entity out of the storage map value, return null
+     * if it is missing or only holds its ID.
+     */
+    private HashMap<String, Object> getEntity(ParseContext ctx, Object stored, String key, String idKey) {
+        if (stored instanceof HashMap) {
+            @SuppressWarnings("unchecked")
+            HashMap<String, Object> temp = (HashMap<String, Object>) stored;
+            compactSeries(ctx, temp, "weather", "dailyWeather");
+            if (temp.containsKey(key)) {
+                @SuppressWarnings("unchecked")
+                HashMap<String, Object> entity = (HashMap<String, Object>) temp.get(key);
+                if (entity.size() == 1 && entity.containsKey(idKey)) {
+                } else {
+                    return entity;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Replace the records of the series with a {@link ColumnarSeries}, if
+     * enabled and not done yet.
+     */
+    private void compactSeries(ParseContext ctx, HashMap<String, Object> stored, String bucket, String series) {
+        if (!columnarSeries || stored == null || !(stored.get(bucket) instanceof HashMap)) {
+            return;
+        }
+        @SuppressWarnings("unchecked")
+        HashMap<String, Object> temp = (HashMap<String, Object>) stored.get(bucket);
+        Object records = temp.get(series);
+        if (records instanceof ArrayList) {
+            @SuppressWarnings("unchecked")
+            ColumnarSeries columns = ColumnarSeries.of((ArrayList<HashMap<String, Object>>) records, ctx.seriesSchemas);
+            if (columns != null) {
+                temp.put(series, columns);
+            }
+        }
+    }
+
+    private void setListSeparator(ParseContext ctx, BufferedReader in) throws Exception {
         // Set a mark at the beginning of the file, so we can get back to it.
         in.mark(7168);
         String sample;
         while ((sample = in.readLine()) != null) {
             if (sample.startsWith("#") || sample.startsWith("%") || sample.startsWith("*")) {
                 String listSeperator = sample.substring(1, 2);
-                LOG.debug("FOUND SEPARATOR: " + listSeperator);
-                this.listSeparator = listSeperator;
+                LOG.debug("FOUND SEPARATOR: {}", listSeperator);
+                ctx.listSeparator = listSeperator;
                 break;
             }
         }
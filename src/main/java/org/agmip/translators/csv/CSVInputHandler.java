@@ -0,0 +1,44 @@
+package org.agmip.translators.csv;
+
+import java.util.HashMap;
+
+/**
+ * Receives the entities read by {@link CSVInput#readFile(String, CSVInputHandler)}
+ * as soon as they are finished, instead of waiting for the whole file to be
+ * collected into the final map.
+ *
+ * The maps handed over are the same ones that would be put into the
+ * "experiments", "weathers" and "soils" lists by {@link CSVInput#readFile(String)}
+ * and are not referenced by the reader any more, except for the weather
+ * stations and soil profiles given by an {@link EntityCache} (see
+ * {@link CSVInput#setEntityCache(EntityCache)}). Those are shared with every
+ * reader using the cache and can not be changed: any change, like a put,
+ * throws an UnsupportedOperationException. A handler which changes them
+ * must copy them first.
+ */
+public interface CSVInputHandler {
+
+    /**
+     * Called for each finished experiment.
+     *
+     * @param experiment the experiment data
+     * @throws Exception if the handler fails, which stops the reading
+     */
+    void experiment(HashMap<String, Object> experiment) throws Exception;
+
+    /**
+     * Called for each finished weather station.
+     *
+     * @param weather the weather data
+     * @throws Exception if the handler fails, which stops the reading
+     */
+    void weather(HashMap<String, Object> weather) throws Exception;
+
+    /**
+     * Called for each finished soil profile.
+     *
+     * @param soil the soil data
+     * @throws Exception if the handler fails, which stops the reading
+     */
+    void soil(HashMap<String, Object> soil) throws Exception;
+}
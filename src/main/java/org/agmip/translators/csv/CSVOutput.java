@@ -1,15 +1,22 @@
 package org.agmip.translators.csv;
 
-import au.com.bytecode.opencsv.CSVWriter;
-import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileWriter;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 import org.agmip.common.Functions;
 import org.agmip.core.types.TranslatorOutput;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import static org.agmip.util.MapUtil.*;
 
 /**
@@ -20,7 +27,11 @@ import static org.agmip.util.MapUtil.*;
  */
 public class CSVOutput implements TranslatorOutput {
 
+    private static final Logger LOG = LoggerFactory.getLogger(CSVOutput.class);
     protected ArrayList<File> outputWthFiles;
+    private int threads = 1;
+    private int schemaSampleRows = 0;
+    private TranslationMetrics metrics = TranslationMetrics.getDefault(); // Null if not recorded
 
     @Override
     public void writeFile(String outputDirectory, Map data) throws IOException {
@@ -28,6 +39,40 @@ public class CSVOutput implements TranslatorOutput {
         writeWthFile(outputDirectory, data);
     }
 
+    /**
+     * Set the number of threads used to write the weather files. Each weather
+     * station goes into its own file, so the files can be written at the same
+     * time. The file names are still given out in the order of the stations.
+     *
+     * @param threads the number of threads, 1 (the default) writes the files
+     * one by one
+     */
+    public void setThreads(int threads) {
+        this.threads = Math.max(1, threads);
+    }
+
+    /**
+     * Set the number of daily rows used to find the columns of the daily
+     * section. By default all the rows are used, so a variable is written
+     * even if it only appears in the later days. With a sample, the
+     * variables which only appear after the sampled rows are not written.
+     *
+     * @param rows the number of rows, 0 (the default) uses all the rows
+     */
+    public void setSchemaSampleRows(int rows) {
+        this.schemaSampleRows = Math.max(0, rows);
+    }
+
+    /**
+     * Set the registry the counts and the times of this writer are added
+     * to, by default {@link TranslationMetrics#getDefault()}.
+     *
+     * @param metrics the registry, or null to not record them
+     */
+    public void setMetrics(TranslationMetrics metrics) {
+        this.metrics = metrics;
+    }
+
     protected void writeWthFile(String outputDirectory, Map data) throws IOException {
         outputWthFiles = new ArrayList();
         // Get Weather data from data set
@@ -42,87 +87,221 @@ public class CSVOutput implements TranslatorOutput {
         }
 
         // Output weather csv file for each weather station
+        OutputFileAllocator allocator = new OutputFileAllocator(new File(outputDirectory));
+        if (threads > 1 && wthArr.size() > 1) {
+            writeWthFiles(allocator, wthArr);
+            return;
+        }
+        for (HashMap<String, Object> wthData : wthArr) {
+            File csv = getWthFileName(wthData, allocator);
+            writeWthFile(csv, wthData);
+            outputWthFiles.add(csv);
+        }
+    }
+
+    /**
+     * Write the weather files on a pool of worker threads. The file names are
+     * taken in the order of the stations before any file is written. If a
+     * file can not be written, the files which are not completely written
+     * are deleted, and only the completed ones are listed.
+     */
+    private void writeWthFiles(OutputFileAllocator allocator, ArrayList<HashMap> wthArr) throws IOException {
+        ArrayList<File> files = new ArrayList();
         for (HashMap<String, Object> wthData : wthArr) {
-            File csv = getWthFileName(wthData, outputDirectory);
-            BufferedWriter bw = new BufferedWriter(new FileWriter(csv));
-            CSVWriter writer = new CSVWriter(bw, ',');
+            files.add(getWthFileName(wthData, allocator));
+        }
+        ExecutorService pool = Executors.newFixedThreadPool(Math.min(threads, wthArr.size()));
+        ArrayList<Future<File>> futures = new ArrayList();
+        try {
+            for (int i = 0; i < files.size(); i++) {
+                final File csv = files.get(i);
+                final HashMap<String, Object> wthData = wthArr.get(i);
+                futures.add(pool.submit(new Callable<File>() {
+                    @Override
+                    public File call() throws IOException {
+                        writeWthFile(csv, wthData);
+                        return csv;
+                    }
+                }));
+            }
+            for (Future<File> future : futures) {
+                outputWthFiles.add(future.get());
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IOException(ex);
+        } catch (ExecutionException ex) {
+            if (ex.getCause() instanceof IOException) {
+                throw (IOException) ex.getCause();
+            }
+            throw new IOException(ex.getCause());
+        } finally {
+            pool.shutdownNow();
+            if (outputWthFiles.size() < files.size()) {
+                deleteUnfinished(pool, futures, files);
+            }
+        }
+    }
+
+    /**
+     * Delete the files of the tasks which did not complete, once the pool
+     * has stopped writing them, and list the completed files.
+     */
+    private void deleteUnfinished(ExecutorService pool, ArrayList<Future<File>> futures, ArrayList<File> files) {
+        try {
+            while (!pool.awaitTermination(1, TimeUnit.MINUTES)) {
+                LOG.warn("Waiting for the weather files still being written, to delete them");
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        outputWthFiles.clear();
+        for (int i = 0; i < files.size(); i++) {
+            File csv = files.get(i);
+            if (i < futures.size() && isCompleted(futures.get(i))) {
+                outputWthFiles.add(csv);
+            } else if (csv.exists() && !csv.delete()) {
+                LOG.warn("Could not delete the unfinished weather file {}", csv);
+            }
+        }
+    }
+
+    private static boolean isCompleted(Future<File> future) {
+        if (!future.isDone() || future.isCancelled()) {
+            return false;
+        }
+        try {
+            future.get();
+            return true;
+        } catch (Exception ex) {
+            return false;
+        }
+    }
+
+    private void writeWthFile(File csv, HashMap<String, Object> wthData) throws IOException {
+        long start = System.nanoTime();
+        AceCSVWriter writer = new AceCSVWriter(csv, ',');
+        try {
             ArrayList<String> headerKeys = new ArrayList();
-            ArrayList<String> nextLine;
 
             // Write weahter file site section headers
-            nextLine = new ArrayList();
-            nextLine.add("#");
-            nextLine.add("WST_ID");
+            writer.fields("#", "WST_ID");
             headerKeys.add("wst_id");
             for (String key : wthData.keySet()) {
                 if (!key.equals("wst_id") && !key.equals("dailyWeather")) {
-                    nextLine.add(key.toUpperCase());
+                    writer.field(key.toUpperCase());
                     headerKeys.add(key);
                 }
             }
-            writer.writeNext(nextLine.toArray(new String[0]));
+            writer.endLine();
 
             // Write weahter file site section values
-            nextLine = new ArrayList();
-            nextLine.add("");
+            writer.field("");
             for (String key : headerKeys) {
-                nextLine.add(getValueOr(wthData, key, ""));
+                writer.field(getValueOr(wthData, key, ""));
             }
-            writer.writeNext(nextLine.toArray(new String[0]));
+            writer.endLine();
 
             // Write weahter file daily section headers
-            ArrayList<HashMap<String, String>> dailyArr = new BucketEntry(wthData).getDataList();
-            headerKeys = new ArrayList();
+            List<? extends Map<String, String>> dailyArr = getDailyList(wthData);
+            String[] dailyKeys = getDailyKeys(dailyArr);
             if (!dailyArr.isEmpty()) {
-                HashMap<String, String> dailyData = dailyArr.get(0);
-                nextLine = new ArrayList();
-                nextLine.add("%");
-                nextLine.add("W_DATE");
-                headerKeys.add("w_date");
-                for (String key : dailyData.keySet()) {
-                    if (!key.equals("w_date")) {
-                        nextLine.add(key.toUpperCase());
-                        headerKeys.add(key);
-                    }
+                writer.fields("%", "W_DATE");
+                for (String key : dailyKeys) {
+                    writer.field(key.toUpperCase());
                 }
-                writer.writeNext(nextLine.toArray(new String[0]));
+                writer.endLine();
             }
 
             // Write weahter file daily section values
-            for (HashMap<String, String> dailyData : dailyArr) {
-                nextLine = new ArrayList();
-                nextLine.add("");
-                for (String key : headerKeys) {
-                    if (key.equals("w_date")) {
-                        String date = Functions.formatAgmipDateString(getValueOr(dailyData, key, ""), "yyyy-MM-dd");
-                        if (date == null) {
-                            date = "";
-                        }
-                        nextLine.add(date);
-                    } else {
-                        nextLine.add(getValueOr(dailyData, key, ""));
+            if (dailyArr instanceof ColumnarSeries) {
+                writeDaily(writer, (ColumnarSeries) dailyArr, dailyKeys);
+            } else {
+                for (Map<String, String> dailyData : dailyArr) {
+                    writer.field("");
+                    String date = DateConverter.toCsvDate(getValueOr(dailyData, "w_date", ""));
+                    writer.field(date == null ? "" : date);
+                    for (String key : dailyKeys) {
+                        writer.field(getValueOr(dailyData, key, ""));
                     }
+                    writer.endLine();
                 }
-                writer.writeNext(nextLine.toArray(new String[0]));
             }
-
-            writer.flush();
+        } finally {
             writer.close();
-            outputWthFiles.add(csv);
         }
+        if (metrics != null) {
+            metrics.recordWrite(writer.getBytesWritten(), System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Write the daily rows of a series stored by column, looking up the
+     * columns of the variables once instead of once per row.
+     */
+    private void writeDaily(AceCSVWriter writer, ColumnarSeries dailyArr, String[] dailyKeys) throws IOException {
+        int dateColumn = dailyArr.getColumn("w_date");
+        int[] columns = new int[dailyKeys.length];
+        for (int i = 0; i < columns.length; i++) {
+            columns[i] = dailyArr.getColumn(dailyKeys[i]);
+        }
+        for (int row = 0; row < dailyArr.size(); row++) {
+            writer.field("");
+            String date = dailyArr.getValue(row, dateColumn);
+            date = DateConverter.toCsvDate(date == null ? "" : date);
+            writer.field(date == null ? "" : date);
+            for (int column : columns) {
+                String value = dailyArr.getValue(row, column);
+                writer.field(value == null ? "" : value);
+            }
+            writer.endLine();
+        }
+    }
+
+    /**
+     * Get the daily records, which may be an ArrayList of HashMaps or a
+     * {@link ColumnarSeries}. The records are not checked, like the other
+     * values of the weather data.
+     */
+    @SuppressWarnings("unchecked")
+    private List<? extends Map<String, String>> getDailyList(HashMap<String, Object> wthData) {
+        Object daily = wthData.get("dailyWeather");
+        if (daily instanceof List) {
+            return (List<? extends Map<String, String>>) daily;
+        }
+        return new BucketEntry(wthData).getDataList();
+    }
+
+    /**
+     * Get the daily variables other than w_date, in the order they are first
+     * found in the rows.
+     */
+    private String[] getDailyKeys(List<? extends Map<String, String>> dailyArr) {
+        LinkedHashSet<String> keys = new LinkedHashSet<String>();
+        int rows = dailyArr.size();
+        if (schemaSampleRows > 0) {
+            rows = Math.min(rows, schemaSampleRows);
+        }
+        if (dailyArr instanceof ColumnarSeries && rows == dailyArr.size()) {
+            // The variables of the series are already in the order they are first found
+            keys.addAll(((ColumnarSeries) dailyArr).getVariables());
+            rows = 0;
+        }
+        for (int i = 0; i < rows; i++) {
+            keys.addAll(dailyArr.get(i).keySet());
+        }
+        keys.remove("w_date");
+        return keys.toArray(new String[keys.size()]);
     }
 
-    private File getWthFileName(HashMap wthData, String outputDirectory) {
+    /**
+     * Get a new weather file for the station. The file is created right
+     * away, so a name can not be given out twice.
+     */
+    private File getWthFileName(HashMap wthData, OutputFileAllocator allocator) throws IOException {
         String path = getValueOr(wthData, "wst_id", "TEMP");
         path += getValueOr(wthData, "clim_id", "");
-        path = outputDirectory + File.separator + path;
-        File f = new File(path + ".csv");
-        int count = 1;
-        while (f.exists()) {
-            f = new File(path + "_" + count + ".csv");
-            count++;
-        }
-        return f;
+        return allocator.allocate(path, ".csv");
     }
 
     public ArrayList<File> getOutputWthFiles() {
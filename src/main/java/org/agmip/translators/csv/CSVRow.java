@@ -0,0 +1,117 @@
+package org.agmip.translators.csv;
+
+import au.com.bytecode.opencsv.CSVReader;
+import java.io.IOException;
+
+/**
+ * The current line of a CSV source, which is moved forward by
+ * {@link #next()}. The fields are read through the methods below, so an
+ * implementation only needs to create the strings of the fields which are
+ * actually used.
+ */
+abstract class CSVRow {
+
+    /**
+     * Move to the next line.
+     *
+     * @return false if there are no more lines
+     * @throws IOException if the source can not be read
+     */
+    abstract boolean next() throws IOException;
+
+    /**
+     * Get the number of fields of the current line.
+     */
+    abstract int size();
+
+    /**
+     * Get the field of the current line.
+     *
+     * @throws ArrayIndexOutOfBoundsException if there is no such field
+     */
+    abstract String get(int i);
+
+    abstract void close() throws IOException;
+
+    boolean isEmpty(int i) {
+        return get(i).length() == 0;
+    }
+
+    /**
+     * Check if the field is empty after it is trimmed.
+     */
+    boolean isBlank(int i) {
+        return get(i).trim().length() == 0;
+    }
+
+    boolean startsWith(int i, char c) {
+        String value = get(i);
+        return value.length() > 0 && value.charAt(0) == c;
+    }
+
+    /**
+     * Check if the lower cased field is equal to the given value.
+     */
+    boolean equalsLowerCase(int i, String value) {
+        return get(i).toLowerCase().equals(value);
+    }
+
+    String[] toArray() {
+        String[] ret = new String[size()];
+        for (int i = 0; i < ret.length; i++) {
+            ret[i] = get(i);
+        }
+        return ret;
+    }
+
+    /**
+     * Get the lines read by the opencsv reader.
+     */
+    static CSVRow of(final CSVReader reader) {
+        return new ArrayRow(null) {
+            @Override
+            boolean next() throws IOException {
+                data = reader.readNext();
+                return data != null;
+            }
+
+            @Override
+            void close() throws IOException {
+                reader.close();
+            }
+        };
+    }
+
+    private static class ArrayRow extends CSVRow {
+
+        protected String[] data;
+
+        public ArrayRow(String[] data) {
+            this.data = data;
+        }
+
+        @Override
+        boolean next() throws IOException {
+            return false;
+        }
+
+        @Override
+        int size() {
+            return data.length;
+        }
+
+        @Override
+        String get(int i) {
+            return data[i];
+        }
+
+        @Override
+        void close() throws IOException {
+        }
+
+        @Override
+        String[] toArray() {
+            return data;
+        }
+    }
+}
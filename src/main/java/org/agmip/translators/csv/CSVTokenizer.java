@@ -0,0 +1,309 @@
+package org.agmip.translators.csv;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * Splits the CSV lines directly on the bytes of a buffer, usually a memory
+ * mapped file. A field is only kept as its position in the buffer, and the
+ * string is created the first time it is asked for, so the fields which are
+ * skipped or empty never become strings.
+ *
+ * The lines and fields are the same as the ones given by the opencsv
+ * {@code CSVReader} with the default quote character, including the quoted
+ * fields spread over several lines. This only works for the charsets where
+ * the quote, the separator and the line breaks are single bytes which can
+ * not be part of another character, see {@link #supports(Charset, char)}.
+ */
+final class CSVTokenizer extends CSVRow {
+
+    private static final Charset ASCII = Charset.forName("ISO-8859-1");
+    private static final byte CR = '\r';
+    private static final byte LF = '\n';
+    private static final byte QUOTE = '"';
+    private final ByteBuffer buf;
+    private final int limit;
+    private final byte separator;
+    private final Charset charset;
+    private final boolean utf8;
+    private int pos;
+    private int count;
+    private int[] starts = new int[32];
+    private int[] ends = new int[32];
+    private boolean[] ascii = new boolean[32];
+    private String[] values = new String[32]; // Created strings, or the unquoted values
+    private byte[] scratch = new byte[256];
+    private int scratchLen;
+
+    /**
+     * Create the tokenizer on the remaining bytes of the buffer.
+     *
+     * @param buf the buffer, which must not be used by anything else
+     * @param separator the field separator
+     * @param charset the charset of the bytes
+     */
+    CSVTokenizer(ByteBuffer buf, char separator, Charset charset) {
+        this.buf = buf;
+        this.pos = buf.position();
+        this.limit = buf.limit();
+        this.separator = (byte) separator;
+        this.charset = charset;
+        this.utf8 = charset.name().equals("UTF-8");
+    }
+
+    /**
+     * Check if the bytes in the charset can be split by this tokenizer.
+     */
+    static boolean supports(Charset charset, char separator) {
+        if (separator >= 0x80 || separator == '"' || separator == '\r' || separator == '\n') {
+            return false;
+        }
+        if (!charset.name().equals("UTF-8") && charset.newEncoder().maxBytesPerChar() != 1) {
+            return false;
+        }
+        String probe = "\"\r\n" + separator;
+        return Arrays.equals(probe.getBytes(charset), probe.getBytes(ASCII));
+    }
+
+    /**
+     * Get the remaining bytes of the buffer as a stream, without moving the
+     * buffer.
+     */
+    static InputStream asStream(ByteBuffer buffer) {
+        final ByteBuffer buf = buffer.duplicate();
+        return new InputStream() {
+            @Override
+            public int read() {
+                return buf.hasRemaining() ? buf.get() & 0xff : -1;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) {
+                if (len == 0) {
+                    return 0;
+                }
+                if (!buf.hasRemaining()) {
+                    return -1;
+                }
+                len = Math.min(len, buf.remaining());
+                buf.get(b, off, len);
+                return len;
+            }
+        };
+    }
+
+    @Override
+    boolean next() {
+        Arrays.fill(values, 0, count, null);
+        count = 0;
+        if (pos >= limit) {
+            return false;
+        }
+        int p = pos;
+        int start = p;
+        int lineChar = 0; // Index of the current character in the physical line
+        boolean inQuotes = false;
+        boolean plain = true;
+        boolean asciiOnly = true;
+        scratchLen = 0;
+        while (true) {
+            if (p >= limit || buf.get(p) == CR || buf.get(p) == LF) {
+                int end = p;
+                if (p < limit && buf.get(p++) == CR && p < limit && buf.get(p) == LF) {
+                    p++;
+                }
+                if (!inQuotes) {
+                    addField(start, end, plain, asciiOnly);
+                    break;
+                }
+                // The quoted field goes on in the next line
+                if (plain) {
+                    copy(start, end);
+                    plain = false;
+                }
+                append(LF);
+                if (p >= limit) {
+                    addField(start, end, plain, asciiOnly);
+                    break;
+                }
+                lineChar = 0;
+                continue;
+            }
+            byte b = buf.get(p);
+            if (b == QUOTE) {
+                if (plain) {
+                    copy(start, p);
+                    plain = false;
+                }
+                if (inQuotes && p + 1 < limit && buf.get(p + 1) == QUOTE) {
+                    append(QUOTE);
+                    p += 2;
+                    lineChar += 2;
+                    continue;
+                }
+                inQuotes = !inQuotes;
+                if (lineChar > 2 && buf.get(p - 1) != separator && p + 1 < limit
+                        && buf.get(p + 1) != separator && buf.get(p + 1) != CR && buf.get(p + 1) != LF) {
+                    append(QUOTE);
+                }
+                p++;
+                lineChar++;
+            } else if (b == separator && !inQuotes) {
+                addField(start, p, plain, asciiOnly);
+                p++;
+                lineChar++;
+                start = p;
+                plain = true;
+                asciiOnly = true;
+                scratchLen = 0;
+            } else {
+                if (b < 0) {
+                    asciiOnly = false;
+                }
+                if (!plain) {
+                    append(b);
+                }
+                if (!utf8 || (b & 0xC0) != 0x80) {
+                    lineChar++;
+                }
+                if (utf8 && (b & 0xF8) == 0xF0) {
+                    // Counted in chars like opencsv, so two for a surrogate pair
+                    lineChar++;
+                }
+                p++;
+            }
+        }
+        pos = p;
+        return true;
+    }
+
+    @Override
+    int size() {
+        return count;
+    }
+
+    @Override
+    String get(int i) {
+        check(i);
+        String value = values[i];
+        if (value == null) {
+            int len = ends[i] - starts[i];
+            if (scratch.length < len) {
+                scratch = new byte[Math.max(len, scratch.length * 2)];
+            }
+            buf.position(starts[i]);
+            buf.get(scratch, 0, len);
+            value = new String(scratch, 0, len, ascii[i] ? ASCII : charset);
+            values[i] = value;
+        }
+        return value;
+    }
+
+    @Override
+    boolean isEmpty(int i) {
+        check(i);
+        if (values[i] != null) {
+            return values[i].length() == 0;
+        }
+        return starts[i] == ends[i];
+    }
+
+    @Override
+    boolean isBlank(int i) {
+        check(i);
+        if (values[i] != null) {
+            return values[i].trim().length() == 0;
+        }
+        for (int p = starts[i]; p < ends[i]; p++) {
+            byte b = buf.get(p);
+            if (b < 0 || b > ' ') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    boolean startsWith(int i, char c) {
+        check(i);
+        if (values[i] != null || c >= 0x80) {
+            return super.startsWith(i, c);
+        }
+        return starts[i] < ends[i] && buf.get(starts[i]) == c;
+    }
+
+    @Override
+    boolean equalsLowerCase(int i, String value) {
+        check(i);
+        if (values[i] != null || !ascii[i]) {
+            return super.equalsLowerCase(i, value);
+        }
+        int len = ends[i] - starts[i];
+        if (len != value.length()) {
+            return false;
+        }
+        for (int j = 0; j < len; j++) {
+            int b = buf.get(starts[i] + j);
+            if (b == 'I') {
+                // Depends on the locale
+                return super.equalsLowerCase(i, value);
+            }
+            if (b >= 'A' && b <= 'Z') {
+                b += 'a' - 'A';
+            }
+            if (b != value.charAt(j)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    void close() {
+    }
+
+    /**
+     * Get the position in the buffer where the next line starts.
+     */
+    int position() {
+        return pos;
+    }
+
+    private void check(int i) {
+        if (i < 0 || i >= count) {
+            throw new ArrayIndexOutOfBoundsException(i);
+        }
+    }
+
+    private void addField(int start, int end, boolean plain, boolean asciiOnly) {
+        if (count == starts.length) {
+            int size = count * 2;
+            starts = Arrays.copyOf(starts, size);
+            ends = Arrays.copyOf(ends, size);
+            ascii = Arrays.copyOf(ascii, size);
+            values = Arrays.copyOf(values, size);
+        }
+        starts[count] = start;
+        ends[count] = end;
+        ascii[count] = asciiOnly;
+        if (!plain) {
+            values[count] = new String(scratch, 0, scratchLen, asciiOnly ? ASCII : charset);
+        }
+        count++;
+    }
+
+    private void copy(int start, int end) {
+        for (int p = start; p < end; p++) {
+            append(buf.get(p));
+        }
+    }
+
+    private void append(byte b) {
+        if (scratchLen == scratch.length) {
+            scratch = Arrays.copyOf(scratch, scratchLen * 2);
+        }
+        scratch[scratchLen++] = b;
+    }
+}
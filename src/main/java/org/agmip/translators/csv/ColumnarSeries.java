@@ -0,0 +1,327 @@
+package org.agmip.translators.csv;
+
+import java.util.AbstractList;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.RandomAccess;
+import java.util.Set;
+
+/**
+ * The records of a series (like the "dailyWeather" of a weather station or
+ * the "timeSeries" of the observed data) stored by variable instead of one
+ * map per record.
+ *
+ * A value written as a plain decimal number (like "-1.58", "29.70" or
+ * "19800101") is kept as a long with the number of decimals, so it is given
+ * back with exactly the same text. Any other value is kept as it is. The
+ * variables and their order are shared by the series with the same ones.
+ *
+ * The series is a read-only list of read-only maps, created when a record
+ * is asked for. It is used by {@link CSVInput#setColumnarSeries(boolean)}.
+ */
+public final class ColumnarSeries extends AbstractList<Map<String, String>> implements RandomAccess {
+
+    private static final byte ABSENT = -1;
+    private static final byte TEXT = -2;
+    private static final int MAX_DIGITS = 18;
+    private final Schema schema;
+    private final int size;
+    private final long[][] numbers;
+    private final byte[][] scales; // Number of decimals, or ABSENT or TEXT
+    private final String[][] texts; // Only created for the variables with a TEXT value
+
+    /**
+     * The variables of a series, in the order they are first found.
+     */
+    static final class Schema {
+
+        private final String[] names;
+        private final HashMap<String, Integer> columns;
+
+        private Schema(String[] names) {
+            this.names = names;
+            this.columns = new HashMap<String, Integer>();
+            for (int i = 0; i < names.length; i++) {
+                columns.put(names[i], i);
+            }
+        }
+    }
+
+    private ColumnarSeries(Schema schema, int size) {
+        this.schema = schema;
+        this.size = size;
+        int width = schema.names.length;
+        this.numbers = new long[width][size];
+        this.scales = new byte[width][size];
+        this.texts = new String[width][];
+        for (byte[] column : scales) {
+            Arrays.fill(column, ABSENT);
+        }
+    }
+
+    /**
+     * Store the records by column.
+     *
+     * @param records the records of the series
+     * @param schemas the schemas already used, keyed by their variables
+     * @return the series, or null if a record holds something else than
+     * text values
+     */
+    static ColumnarSeries of(List<? extends Map<String, ?>> records, Map<List<String>, Schema> schemas) {
+        LinkedHashMap<String, Integer> order = new LinkedHashMap<String, Integer>();
+        for (Map<String, ?> record : records) {
+            for (Map.Entry<String, ?> entry : record.entrySet()) {
+                if (!(entry.getValue() instanceof String)) {
+                    return null;
+                }
+                if (!order.containsKey(entry.getKey())) {
+                    order.put(entry.getKey(), order.size());
+                }
+            }
+        }
+        List<String> names = new ArrayList<String>(order.keySet());
+        Schema schema = schemas.get(names);
+        if (schema == null) {
+            schema = new Schema(names.toArray(new String[names.size()]));
+            schemas.put(names, schema);
+        }
+
+        ColumnarSeries ret = new ColumnarSeries(schema, records.size());
+        int row = 0;
+        for (Map<String, ?> record : records) {
+            for (Map.Entry<String, ?> entry : record.entrySet()) {
+                ret.set(schema.columns.get(entry.getKey()), row, (String) entry.getValue());
+            }
+            row++;
+        }
+        return ret;
+    }
+
+    /**
+     * Get the variables of the series.
+     */
+    public List<String> getVariables() {
+        return Collections.unmodifiableList(Arrays.asList(schema.names));
+    }
+
+    /**
+     * Get the value of the variable in the record.
+     *
+     * @param row the index of the record
+     * @param variable the variable
+     * @return the value, or null if the record does not have the variable
+     */
+    public String getValue(int row, String variable) {
+        if (row < 0 || row >= size) {
+            throw new IndexOutOfBoundsException("Index: " + row + ", Size: " + size);
+        }
+        Integer column = schema.columns.get(variable);
+        return column == null ? null : value(column, row);
+    }
+
+    /**
+     * Get the column of the variable, or -1 if the series does not have it.
+     */
+    int getColumn(String variable) {
+        Integer column = schema.columns.get(variable);
+        return column == null ? -1 : column;
+    }
+
+    /**
+     * Get the value of the column, given by {@link #getColumn(String)}, in
+     * the record, or null if the record does not have it.
+     */
+    String getValue(int row, int column) {
+        if (row < 0 || row >= size) {
+            throw new IndexOutOfBoundsException("Index: " + row + ", Size: " + size);
+        }
+        return column < 0 ? null : value(column, row);
+    }
+
+    @Override
+    public Map<String, String> get(int row) {
+        if (row < 0 || row >= size) {
+            throw new IndexOutOfBoundsException("Index: " + row + ", Size: " + size);
+        }
+        return new Record(row);
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Get an estimate of the memory taken by the series, in bytes, not
+     * counting the shared schema.
+     */
+    long sizeInBytes() {
+        long ret = 64;
+        for (int i = 0; i < numbers.length; i++) {
+            ret += 48 + 9L * size;
+            if (texts[i] != null) {
+                ret += 16 + 8L * size;
+                for (String text : texts[i]) {
+                    if (text != null) {
+                        ret += 40 + 2L * text.length();
+                    }
+                }
+            }
+        }
+        return ret;
+    }
+
+    private void set(int column, int row, String value) {
+        int scale = encode(value, numbers[column], row);
+        if (scale == TEXT) {
+            if (texts[column] == null) {
+                texts[column] = new String[size];
+            }
+            texts[column][row] = value;
+        }
+        scales[column][row] = (byte) scale;
+    }
+
+    private String value(int column, int row) {
+        byte scale = scales[column][row];
+        if (scale == ABSENT) {
+            return null;
+        } else if (scale == TEXT) {
+            return texts[column][row];
+        } else {
+            return format(numbers[column][row], scale);
+        }
+    }
+
+    /**
+     * Store the plain decimal number into the row, and get its number of
+     * decimals. Anything which would not be formatted back to the same text
+     * (like "+1", "01", ".5", "1e3" or "-0") gives TEXT.
+     */
+    static int encode(String value, long[] numbers, int row) {
+        int len = value.length();
+        int start = len > 0 && value.charAt(0) == '-' ? 1 : 0;
+        int dot = -1;
+        long number = 0;
+        int digits = 0;
+        for (int i = start; i < len; i++) {
+            char c = value.charAt(i);
+            if (c >= '0' && c <= '9') {
+                number = number * 10 + (c - '0');
+                digits++;
+            } else if (c == '.' && dot < 0) {
+                dot = i;
+            } else {
+                return TEXT;
+            }
+        }
+        int intEnd = dot < 0 ? len : dot;
+        if (digits == 0 || digits > MAX_DIGITS || intEnd == start || dot == len - 1
+                || (value.charAt(start) == '0' && intEnd - start > 1)
+                || (start == 1 && number == 0)) {
+            return TEXT;
+        }
+        numbers[row] = start == 1 ? -number : number;
+        return dot < 0 ? 0 : len - dot - 1;
+    }
+
+    static String format(long number, int scale) {
+        if (scale == 0) {
+            return Long.toString(number);
+        }
+        String digits = Long.toString(Math.abs(number));
+        StringBuilder sb = new StringBuilder(digits.length() + scale + 2);
+        if (number < 0) {
+            sb.append('-');
+        }
+        int intLen = digits.length() - scale;
+        if (intLen > 0) {
+            sb.append(digits, 0, intLen).append('.').append(digits, intLen, digits.length());
+        } else {
+            sb.append("0.");
+            for (int i = intLen; i < 0; i++) {
+                sb.append('0');
+            }
+            sb.append(digits);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * The read-only view of one record.
+     */
+    private final class Record extends AbstractMap<String, String> {
+
+        private final int row;
+
+        private Record(int row) {
+            this.row = row;
+        }
+
+        @Override
+        public String get(Object key) {
+            Integer column = schema.columns.get(key);
+            return column == null ? null : value(column, row);
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            Integer column = schema.columns.get(key);
+            return column != null && scales[column][row] != ABSENT;
+        }
+
+        @Override
+        public Set<Map.Entry<String, String>> entrySet() {
+            return new AbstractSet<Map.Entry<String, String>>() {
+                @Override
+                public Iterator<Map.Entry<String, String>> iterator() {
+                    return new Iterator<Map.Entry<String, String>>() {
+                        private int column = nextColumn(0);
+
+                        @Override
+                        public boolean hasNext() {
+                            return column < schema.names.length;
+                        }
+
+                        @Override
+                        public Map.Entry<String, String> next() {
+                            if (!hasNext()) {
+                                throw new NoSuchElementException();
+                            }
+                            Map.Entry<String, String> ret = new SimpleImmutableEntry<String, String>(schema.names[column], value(column, row));
+                            column = nextColumn(column + 1);
+                            return ret;
+                        }
+                    };
+                }
+
+                @Override
+                public int size() {
+                    int ret = 0;
+                    for (byte[] column : scales) {
+                        if (column[row] != ABSENT) {
+                            ret++;
+                        }
+                    }
+                    return ret;
+                }
+            };
+        }
+
+        private int nextColumn(int column) {
+            while (column < schema.names.length && scales[column][row] == ABSENT) {
+                column++;
+            }
+            return column;
+        }
+    }
+}
@@ -0,0 +1,164 @@
+package org.agmip.translators.csv;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.concurrent.ConcurrentHashMap;
+import org.agmip.common.Functions;
+
+/**
+ * Converts the dates between the CSV format (yyyy-mm-dd or yyyy/mm/dd) and
+ * the ACE format (yyyymmdd).
+ *
+ * The common shapes are converted directly on the characters, anything else
+ * goes through the same {@link SimpleDateFormat} patterns as before. The
+ * results are memoized, since the same dates are repeated by every weather
+ * station and experiment. All the methods are thread-safe.
+ */
+final class DateConverter {
+
+    private static final int CACHE_LIMIT = 32768;
+    private static final ConcurrentHashMap<String, String> aceDates = new ConcurrentHashMap<String, String>();
+    private static final ConcurrentHashMap<String, String> csvDates = new ConcurrentHashMap<String, String>();
+    private static final ThreadLocal<SimpleDateFormat[]> formats = new ThreadLocal<SimpleDateFormat[]>() {
+        @Override
+        protected SimpleDateFormat[] initialValue() {
+            return new SimpleDateFormat[]{new SimpleDateFormat("yyyy-mm-dd"), new SimpleDateFormat("yyyymmdd")};
+        }
+    };
+    private static final int[] DAYS_OF_MONTH = {31, 29, 31, 30, 31, 30, 31, 31, 30, 31, 30, 31};
+
+    private DateConverter() {
+    }
+
+    /**
+     * Convert the date from the CSV file into the ACE format.
+     *
+     * @param value the date in yyyy-mm-dd or yyyy/mm/dd format
+     * @return the date in yyyymmdd format
+     * @throws ParseException if the date can not be parsed
+     */
+    public static String toAceDate(String value) throws ParseException {
+        String ret = aceDates.get(value);
+        if (ret == null) {
+            ret = parseCsvDate(value);
+            if (ret == null) {
+                SimpleDateFormat[] f = formats.get();
+                ret = f[1].format(f[0].parse(value.replace("/", "-")));
+            }
+            cache(aceDates, value, ret);
+        }
+        return ret;
+    }
+
+    /**
+     * Convert the date from the ACE format into the CSV format.
+     *
+     * @param value the date in yyyymmdd format
+     * @return the date in yyyy-MM-dd format, or null if it is not a valid date
+     */
+    public static String toCsvDate(String value) {
+        if (value == null) {
+            return null;
+        }
+        String ret = csvDates.get(value);
+        if (ret == null) {
+            ret = parseAceDate(value);
+            if (ret == null) {
+                ret = Functions.formatAgmipDateString(value, "yyyy-MM-dd");
+                if (ret == null) {
+                    return null;
+                }
+            }
+            cache(csvDates, value, ret);
+        }
+        return ret;
+    }
+
+    private static void cache(ConcurrentHashMap<String, String> cache, String key, String value) {
+        if (cache.size() >= CACHE_LIMIT) {
+            cache.clear();
+        }
+        cache.put(key, value);
+    }
+
+    /**
+     * Fast path for yyyy-m[m]-d[d] with "-" or "/", returns null for anything
+     * the formatter could read differently (like a rolling day).
+     */
+    private static String parseCsvDate(String value) {
+        int len = value.length();
+        if (len < 8 || len > 10 || !isDigits(value, 0, 4) || !isSeparator(value.charAt(4))) {
+            return null;
+        }
+        int sep = value.indexOf('-', 5);
+        if (sep < 0) {
+            sep = value.indexOf('/', 5);
+        }
+        if (sep < 6 || sep > 7 || sep + 1 >= len || len - sep > 3
+                || !isDigits(value, 5, sep) || !isDigits(value, sep + 1, len)) {
+            return null;
+        }
+        int year = toInt(value, 0, 4);
+        int month = toInt(value, 5, sep);
+        int day = toInt(value, sep + 1, len);
+        // The original pattern reads the middle field as minutes
+        if (year < 1 || month > 59 || day < 1 || day > 31) {
+            return null;
+        }
+        char[] ret = new char[8];
+        value.getChars(0, 4, ret, 0);
+        ret[4] = (char) ('0' + month / 10);
+        ret[5] = (char) ('0' + month % 10);
+        ret[6] = (char) ('0' + day / 10);
+        ret[7] = (char) ('0' + day % 10);
+        return new String(ret);
+    }
+
+    /**
+     * Fast path for valid yyyymmdd dates of the Gregorian calendar, returns
+     * null for anything else.
+     */
+    private static String parseAceDate(String value) {
+        if (value.length() != 8 || !isDigits(value, 0, 8)) {
+            return null;
+        }
+        int year = toInt(value, 0, 4);
+        int month = toInt(value, 4, 6);
+        int day = toInt(value, 6, 8);
+        if (year < 1583 || month < 1 || month > 12 || day < 1 || day > DAYS_OF_MONTH[month - 1]) {
+            return null;
+        }
+        if (month == 2 && day == 29 && !(year % 4 == 0 && (year % 100 != 0 || year % 400 == 0))) {
+            return null;
+        }
+        char[] ret = new char[10];
+        value.getChars(0, 4, ret, 0);
+        ret[4] = '-';
+        value.getChars(4, 6, ret, 5);
+        ret[7] = '-';
+        value.getChars(6, 8, ret, 8);
+        return new String(ret);
+    }
+
+    private static boolean isSeparator(char c) {
+        return c == '-' || c == '/';
+    }
+
+    private static boolean isDigits(String value, int start, int end) {
+        for (int i = start; i < end; i++) {
+            char c = value.charAt(i);
+            if (c < '0' || c > '9') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int toInt(String value, int start, int end) {
+        int ret = 0;
+        for (int i = start; i < end; i++) {
+            ret = ret * 10 + (value.charAt(i) - '0');
+        }
+        return ret;
+    }
+}
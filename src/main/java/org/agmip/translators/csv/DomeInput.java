@@ -41,8 +41,8 @@ public class DomeInput implements TranslatorInput {
     public void readCSV(InputStream stream) throws Exception {
         BufferedReader br = new BufferedReader(new InputStreamReader(stream));
         HashMap<String, String> info = new HashMap<String, String>();
-        HashMap<String, String> linkOvl = new HashMap<String, String>();
-        HashMap<String, String> linkStg = new HashMap<String, String>();
+        HashMap<String, StringBuilder> linkOvl = new HashMap<String, StringBuilder>();
+        HashMap<String, StringBuilder> linkStg = new HashMap<String, StringBuilder>();
         ArrayList<HashMap<String, String>> rules = new ArrayList<HashMap<String, String>>();
         ArrayList<HashMap<String, String>> generators = new ArrayList<HashMap<String, String>>();
         ArrayList<ArrayList<HashMap<String, String>>> genGroups = new ArrayList<ArrayList<HashMap<String, String>>>();
@@ -157,10 +157,10 @@ public class DomeInput implements TranslatorInput {
         dome.put("info", info);
         dome.put("rules", rules);
         if (!linkOvl.isEmpty()) {
-            dome.put("link_overlay", linkOvl);
+            dome.put("link_overlay", toLinkMap(linkOvl));
         }
         if (!linkStg.isEmpty()) {
-            dome.put("link_stragty", linkStg);
+            dome.put("link_stragty", toLinkMap(linkStg));
         }
     }
 
@@ -168,23 +168,39 @@ public class DomeInput implements TranslatorInput {
         return dome;
     }
 
-    private void setDomeIds(HashMap<String, String> link, String key, String[] domeIds) {
+    /**
+     * Append the DOME IDs of the line to the "|" joined IDs of the key. The
+     * first ID column of a new key is taken as it is, the other IDs end at a
+     * comment.
+     */
+    private void setDomeIds(HashMap<String, StringBuilder> link, String key, String[] domeIds) {
         int start = 5;
-        String ids = link.get(key);
-        if ((ids == null || "".equals(ids)) && start < domeIds.length) {
-            ids = domeIds[start].trim();
+        StringBuilder ids = link.get(key);
+        if (ids == null) {
+            if (start >= domeIds.length) {
+                return;
+            }
+            ids = new StringBuilder(domeIds[start].trim());
             start++;
         }
-        
+
         for (int i = start; i < domeIds.length; i++) {
             if (domeIds[i].trim().startsWith("!")) {
                 break;
             } else if (!domeIds[i].trim().equals("")) {
-                ids += "|" + domeIds[i].trim();
+                ids.append("|").append(domeIds[i].trim());
             }
         }
-        if (ids != null && !"".equals(ids)) {
+        if (ids.length() != 0) {
             link.put(key, ids);
         }
     }
+
+    private static HashMap<String, String> toLinkMap(HashMap<String, StringBuilder> link) {
+        HashMap<String, String> ret = new HashMap<String, String>();
+        for (Map.Entry<String, StringBuilder> entry : link.entrySet()) {
+            ret.put(entry.getKey(), entry.getValue().toString());
+        }
+        return ret;
+    }
 }
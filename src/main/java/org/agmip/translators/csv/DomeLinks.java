@@ -0,0 +1,65 @@
+package org.agmip.translators.csv;
+
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+
+/**
+ * Collects the DOME IDs linked to each key (like "EXNAME_xxx" or
+ * "WST_ID_xxx"). The IDs of a key are kept in the order they are first
+ * found, without duplicates, and are only joined with "|" at the end.
+ */
+final class DomeLinks {
+
+    private final HashMap<String, LinkedHashSet<String>> links = new HashMap<String, LinkedHashSet<String>>();
+
+    /**
+     * Add the DOME IDs to the key.
+     *
+     * @param key the link key
+     * @param domeIds one DOME ID, or several joined with "|"
+     */
+    void add(String key, String domeIds) {
+        int start = 0;
+        int len = domeIds.length();
+        while (start <= len) {
+            int end = domeIds.indexOf('|', start);
+            if (end < 0) {
+                end = len;
+            }
+            String id = domeIds.substring(start, end).trim();
+            if (id.length() != 0) {
+                LinkedHashSet<String> ids = links.get(key);
+                if (ids == null) {
+                    ids = new LinkedHashSet<String>();
+                    links.put(key, ids);
+                }
+                ids.add(id);
+            }
+            start = end + 1;
+        }
+    }
+
+    boolean isEmpty() {
+        return links.isEmpty();
+    }
+
+    /**
+     * Get the joined DOME IDs of each key.
+     */
+    HashMap<String, String> toMap() {
+        HashMap<String, String> ret = new HashMap<String, String>();
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String, LinkedHashSet<String>> entry : links.entrySet()) {
+            sb.setLength(0);
+            for (String id : entry.getValue()) {
+                if (sb.length() != 0) {
+                    sb.append('|');
+                }
+                sb.append(id);
+            }
+            ret.put(entry.getKey(), sb.toString());
+        }
+        return ret;
+    }
+}
@@ -0,0 +1,450 @@
+package org.agmip.translators.csv;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.function.UnaryOperator;
+
+/**
+ * An in-memory cache of the weather stations and soil profiles read by
+ * {@link CSVInput}, shared by all the readers using it. The entities of a
+ * CSV file or CSV entry of a ZIP file are kept under the fingerprint of its
+ * content (see {@link TranslationCache}) when the file holds nothing else
+ * than weather stations and soil profiles, so a file which is read again
+ * gives the same entities without being read.
+ *
+ * The cached entities are immutable, since they are handed to every reader
+ * which reads the file: they are HashMaps and ArrayLists which can not be
+ * changed. For the readers using {@link CSVInput#setColumnarSeries(boolean)}
+ * the daily weather and the observed time series are stored by column as
+ * {@link ColumnarSeries}, like the reader does. The
+ * cache is bounded by an estimate of the memory taken by the entities, and
+ * the least recently used files are evicted first.
+ *
+ * By default the readers use the cache given by {@link #getDefault()},
+ * which is none unless one is set by {@link #setDefault(EntityCache)}.
+ */
+public final class EntityCache {
+
+    /**
+     * The default budget, in bytes.
+     */
+    public static final long DEFAULT_BUDGET = 64L << 20;
+    private static volatile EntityCache defaultCache;
+    private final long budget;
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+    private long bytes;
+    private long hits, misses, evictions;
+
+    /**
+     * The entities of one file.
+     */
+    static final class Entry {
+
+        final List<HashMap<String, Object>> weathers;
+        final List<HashMap<String, Object>> soils;
+        final List<String[]> unknownVars; // {variable, path, count}
+        final long bytes;
+
+        private Entry(List<HashMap<String, Object>> weathers, List<HashMap<String, Object>> soils,
+                List<String[]> unknownVars, long bytes) {
+            this.weathers = weathers;
+            this.soils = soils;
+            this.unknownVars = unknownVars;
+            this.bytes = bytes;
+        }
+    }
+
+    /**
+     * A HashMap which can not be changed once created. It is serialized as a
+     * plain HashMap.
+     */
+    static final class FrozenMap extends HashMap<String, Object> {
+
+        private static final long serialVersionUID = 1L;
+        private transient Set<Map.Entry<String, Object>> entries;
+
+        private FrozenMap(Map<String, Object> map) {
+            super(map);
+        }
+
+        private Object writeReplace() {
+            return new HashMap<String, Object>(this);
+        }
+
+        @Override
+        public Set<Map.Entry<String, Object>> entrySet() {
+            if (entries == null) {
+                final Set<Map.Entry<String, Object>> all = super.entrySet();
+                // The entries of an unmodifiable map can not be changed either
+                entries = Collections.unmodifiableMap(new AbstractMap<String, Object>() {
+                    @Override
+                    public Set<Map.Entry<String, Object>> entrySet() {
+                        return all;
+                    }
+                }).entrySet();
+            }
+            return entries;
+        }
+
+        @Override
+        public Set<String> keySet() {
+            return Collections.unmodifiableSet(super.keySet());
+        }
+
+        @Override
+        public Collection<Object> values() {
+            return Collections.unmodifiableCollection(super.values());
+        }
+
+        @Override
+        public Object put(String key, Object value) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void putAll(Map<? extends String, ? extends Object> m) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Object remove(Object key) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void clear() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Object putIfAbsent(String key, Object value) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public boolean remove(Object key, Object value) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public boolean replace(String key, Object oldValue, Object newValue) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Object replace(String key, Object value) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void replaceAll(BiFunction<? super String, ? super Object, ? extends Object> function) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Object computeIfAbsent(String key, Function<? super String, ? extends Object> mappingFunction) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Object computeIfPresent(String key, BiFunction<? super String, ? super Object, ? extends Object> remappingFunction) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Object compute(String key, BiFunction<? super String, ? super Object, ? extends Object> remappingFunction) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Object merge(String key, Object value, BiFunction<? super Object, ? super Object, ? extends Object> remappingFunction) {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    /**
+     * An ArrayList which can not be changed once created. It is serialized
+     * as a plain ArrayList.
+     */
+    static final class FrozenList extends ArrayList<Object> {
+
+        private static final long serialVersionUID = 1L;
+
+        private FrozenList(List<Object> list) {
+            super(list);
+        }
+
+        private Object writeReplace() {
+            return new ArrayList<Object>(this);
+        }
+
+        @Override
+        public Object set(int index, Object element) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public boolean add(Object e) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void add(int index, Object element) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Object remove(int index) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public boolean remove(Object o) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void clear() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public boolean addAll(Collection<? extends Object> c) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public boolean addAll(int index, Collection<? extends Object> c) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        protected void removeRange(int fromIndex, int toIndex) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public boolean removeAll(Collection<?> c) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public boolean retainAll(Collection<?> c) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public boolean removeIf(Predicate<? super Object> filter) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void replaceAll(UnaryOperator<Object> operator) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void sort(Comparator<? super Object> c) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public List<Object> subList(int fromIndex, int toIndex) {
+            // The sub list of an ArrayList writes to its elements directly
+            return Collections.unmodifiableList(super.subList(fromIndex, toIndex));
+        }
+    }
+
+    /**
+     * Create the cache.
+     *
+     * @param budget the memory the cached entities may take, in bytes
+     */
+    public EntityCache(long budget) {
+        this.budget = Math.max(0, budget);
+    }
+
+    /**
+     * Get the cache used by the readers by default, or null if there is
+     * none.
+     */
+    public static EntityCache getDefault() {
+        return defaultCache;
+    }
+
+    /**
+     * Set the cache used by the readers created afterwards, shared by all of
+     * them.
+     *
+     * @param cache the cache, or null (the default) to not cache the
+     * entities
+     */
+    public static void setDefault(EntityCache cache) {
+        defaultCache = cache;
+    }
+
+    /**
+     * Get the memory the cached entities may take, in bytes.
+     */
+    public long getBudget() {
+        return budget;
+    }
+
+    /**
+     * Get an estimate of the memory taken by the cached entities, in bytes.
+     */
+    public synchronized long getBytes() {
+        return bytes;
+    }
+
+    /**
+     * Get the number of cached files.
+     */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * Get the number of files found in the cache.
+     */
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    /**
+     * Get the number of files which were not found in the cache.
+     */
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    /**
+     * Get the number of files evicted from the cache to stay in the budget.
+     */
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    /**
+     * Remove all the cached entities.
+     */
+    public synchronized void clear() {
+        entries.clear();
+        bytes = 0;
+    }
+
+    synchronized Entry get(String key) {
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            misses++;
+        } else {
+            hits++;
+        }
+        return entry;
+    }
+
+    /**
+     * Keep the entry under the key, evicting the least recently used ones
+     * over the budget. An entry larger than the budget is not kept.
+     */
+    synchronized void put(String key, Entry entry) {
+        if (entry.bytes > budget) {
+            return;
+        }
+        Entry old = entries.put(key, entry);
+        bytes += entry.bytes - (old == null ? 0 : old.bytes);
+        Iterator<Entry> it = entries.values().iterator();
+        while (bytes > budget && it.hasNext()) {
+            Entry eldest = it.next();
+            if (eldest == entry) {
+                continue;
+            }
+            it.remove();
+            bytes -= eldest.bytes;
+            evictions++;
+        }
+    }
+
+    /**
+     * Create the immutable entry of the entities of a file.
+     *
+     * @param columnar whether the series are stored by column, or kept as
+     * lists of maps
+     */
+    static Entry freeze(List<HashMap<String, Object>> weathers, List<HashMap<String, Object>> soils, List<String[]> unknownVars,
+            boolean columnar) {
+        long[] size = new long[1];
+        HashMap<List<String>, ColumnarSeries.Schema> schemas = columnar ? new HashMap<List<String>, ColumnarSeries.Schema>() : null;
+        return new Entry(freezeAll(weathers, schemas, size), freezeAll(soils, schemas, size),
+                Collections.unmodifiableList(new ArrayList<String[]>(unknownVars)), size[0]);
+    }
+
+    private static List<HashMap<String, Object>> freezeAll(List<HashMap<String, Object>> entities,
+            HashMap<List<String>, ColumnarSeries.Schema> schemas, long[] size) {
+        ArrayList<HashMap<String, Object>> ret = new ArrayList<HashMap<String, Object>>(entities.size());
+        for (HashMap<String, Object> entity : entities) {
+            ret.add((FrozenMap) freeze(entity, schemas, false, size));
+        }
+        size[0] += 16 + 8L * ret.size();
+        return Collections.unmodifiableList(ret);
+    }
+
+    /**
+     * Get the immutable copy of the value, adding an estimate of its memory
+     * to the size. The records of a series are stored by column if there are
+     * schemas.
+     */
+    @SuppressWarnings("unchecked")
+    private static Object freeze(Object value, HashMap<List<String>, ColumnarSeries.Schema> schemas, boolean series,
+            long[] size) {
+        if (value instanceof String) {
+            size[0] += 40 + 2L * ((String) value).length();
+            return value;
+        } else if (value instanceof ColumnarSeries) {
+            size[0] += ((ColumnarSeries) value).sizeInBytes();
+            return value;
+        } else if (value instanceof Map) {
+            HashMap<String, Object> copy = new HashMap<String, Object>();
+            for (Map.Entry<String, Object> entry : ((Map<String, Object>) value).entrySet()) {
+                boolean records = "dailyWeather".equals(entry.getKey()) || "timeSeries".equals(entry.getKey());
+                copy.put(entry.getKey(), freeze(entry.getValue(), schemas, records, size));
+            }
+            size[0] += 64 + 48L * copy.size();
+            return new FrozenMap(copy);
+        } else if (value instanceof List) {
+            List<Object> list = (List<Object>) value;
+            boolean records = series && schemas != null && !list.isEmpty();
+            for (Object item : list) {
+                records &= item instanceof Map;
+            }
+            if (records) {
+                ColumnarSeries columns = ColumnarSeries.of((List<Map<String, ?>>) value, schemas);
+                if (columns != null) {
+                    size[0] += columns.sizeInBytes();
+                    return columns;
+                }
+            }
+            ArrayList<Object> copy = new ArrayList<Object>(list.size());
+            for (Object item : list) {
+                copy.add(freeze(item, schemas, false, size));
+            }
+            size[0] += 40 + 8L * copy.size();
+            return new FrozenList(copy);
+        } else {
+            size[0] += 16;
+            return value;
+        }
+    }
+}
@@ -0,0 +1,47 @@
+package org.agmip.translators.csv;
+
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Generates the internal IDs which {@link CSVInput} uses to relate the rows
+ * of the same entity. The IDs never show up in the translated data, so they
+ * only need to be unique within one reader. A generator which is not thread
+ * safe may only be used by a reader which is not shared between threads,
+ * see {@link CSVInput#setIdGenerator(EntityIdGenerator)}.
+ */
+public interface EntityIdGenerator {
+
+    /**
+     * Get a new ID, called once for each new entity.
+     *
+     * @return the new ID
+     */
+    String nextId();
+
+    /**
+     * Counts up from 1. This is the default generator of {@link CSVInput}.
+     */
+    class Counter implements EntityIdGenerator {
+
+        private final AtomicLong count = new AtomicLong();
+
+        @Override
+        public String nextId() {
+            return Long.toString(count.incrementAndGet());
+        }
+    }
+
+    /**
+     * Random UUIDs, as used by the earlier versions. Relies on
+     * {@link java.security.SecureRandom}, so it is slower and may block on
+     * systems short of entropy.
+     */
+    class RandomUUID implements EntityIdGenerator {
+
+        @Override
+        public String nextId() {
+            return UUID.randomUUID().toString();
+        }
+    }
+}
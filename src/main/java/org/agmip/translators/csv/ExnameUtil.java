@@ -0,0 +1,58 @@
+package org.agmip.translators.csv;
+
+/**
+ * Owns the format of the suffixes added to the experiment names. Reading a
+ * CSV file numbers the treatments of an experiment as "exname_1",
+ * "exname_2"..., and applying a seasonal strategy DOME adds another
+ * "__n" on top of that.
+ */
+final class ExnameUtil {
+
+    private ExnameUtil() {
+    }
+
+    /**
+     * Add the treatment number to the experiment name.
+     */
+    static String addTreatment(String exname, int treatment) {
+        return exname + "_" + treatment;
+    }
+
+    /**
+     * Remove the treatment number, like "exname_1" to "exname". The name is
+     * returned as it is if it does not end with a number.
+     */
+    static String stripTreatment(String exname) {
+        int start = suffixStart(exname, exname.length());
+        return start < 0 ? exname : exname.substring(0, start);
+    }
+
+    /**
+     * Remove the treatment and the seasonal strategy numbers, like
+     * "exname_1__2" to "exname". The name is returned as it is if it does
+     * not end with both numbers.
+     */
+    static String stripSeasonal(String exname) {
+        int start = suffixStart(exname, exname.length());
+        if (start < 1 || exname.charAt(start - 1) != '_') {
+            return exname;
+        }
+        start = suffixStart(exname, start - 1);
+        return start < 0 ? exname : exname.substring(0, start);
+    }
+
+    /**
+     * Get the index of the "_" of the "_n" suffix ending at the given index,
+     * or -1 if there is none.
+     */
+    private static int suffixStart(String exname, int end) {
+        int i = end;
+        while (i > 0 && exname.charAt(i - 1) >= '0' && exname.charAt(i - 1) <= '9') {
+            i--;
+        }
+        if (i == end || i == 0 || exname.charAt(i - 1) != '_') {
+            return -1;
+        }
+        return i - 1;
+    }
+}
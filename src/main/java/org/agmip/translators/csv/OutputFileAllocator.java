@@ -0,0 +1,57 @@
+package org.agmip.translators.csv;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+
+/**
+ * Gives out new file names in an output directory, trying "name.ext",
+ * then "name_1.ext", "name_2.ext" and so on. The directory is listed once,
+ * and the next number of each name is remembered, so giving out many files
+ * of the same name does not probe the same names again. Each file is
+ * created when its name is given out, so the name can not be taken twice.
+ */
+final class OutputFileAllocator {
+
+    private final File dir;
+    private final HashSet<String> taken;
+    private final HashMap<String, Integer> nextNumbers = new HashMap<String, Integer>();
+
+    /**
+     * Create the allocator of the directory, which is listed right away.
+     *
+     * @param dir the output directory
+     */
+    OutputFileAllocator(File dir) {
+        this.dir = dir;
+        String[] names = dir.list();
+        this.taken = names == null ? new HashSet<String>() : new HashSet<String>(Arrays.asList(names));
+    }
+
+    /**
+     * Create a new file.
+     *
+     * @param name the file name without the extension
+     * @param ext the extension, like ".csv"
+     * @return the created file
+     * @throws IOException if the file can not be created
+     */
+    synchronized File allocate(String name, String ext) throws IOException {
+        String key = name + ext;
+        Integer next = nextNumbers.get(key);
+        int count = next == null ? 0 : next;
+        while (true) {
+            String fileName = count == 0 ? key : name + "_" + count + ext;
+            count++;
+            if (taken.add(fileName)) {
+                File f = new File(dir, fileName);
+                if (f.createNewFile()) {
+                    nextNumbers.put(key, count);
+                    return f;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package org.agmip.translators.csv;
+
+/**
+ * A bounded pool of strings, used to share the values which are read over
+ * and over (like the station IDs, the crop codes or the variable names)
+ * instead of keeping one copy per cell.
+ *
+ * The pool is a fixed table where each string has two possible slots, so a
+ * new string pushes out an older one instead of growing the pool. A value
+ * which is seldom repeated only costs one slot for a while. Strings longer
+ * than {@link #MAX_LENGTH} are not pooled. The pool is not thread safe.
+ */
+final class StringPool {
+
+    static final int DEFAULT_SIZE = 4096;
+    static final int MAX_LENGTH = 32;
+    private final String[] slots;
+    private final int mask;
+    private long hits, misses;
+
+    /**
+     * Create the pool.
+     *
+     * @param size the number of strings kept, rounded up to a power of two
+     */
+    StringPool(int size) {
+        int capacity = Integer.highestOneBit(Math.max(2, size - 1)) << 1;
+        this.slots = new String[capacity];
+        this.mask = capacity - 1;
+    }
+
+    /**
+     * Get the pooled string equal to the value, pooling the value if there
+     * is none.
+     *
+     * @param value the value, may be null
+     * @return the pooled string, or the value itself
+     */
+    String get(String value) {
+        if (value == null || value.length() > MAX_LENGTH) {
+            return value;
+        }
+        int h = value.hashCode();
+        int slot = (h ^ (h >>> 16)) & mask;
+        String pooled = slots[slot];
+        if (value.equals(pooled)) {
+            hits++;
+            return pooled;
+        }
+        pooled = slots[slot ^ 1];
+        if (value.equals(pooled)) {
+            hits++;
+            return pooled;
+        }
+        // The older string of the first slot moves to the second one
+        misses++;
+        slots[slot ^ 1] = slots[slot];
+        slots[slot] = value;
+        return value;
+    }
+
+    long getHits() {
+        return hits;
+    }
+
+    long getMisses() {
+        return misses;
+    }
+}
@@ -0,0 +1,316 @@
+package org.agmip.translators.csv;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InvalidClassException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Properties;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.agmip.ace.AcePathfinder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * An on-disk cache of the partial results of the CSV files and the CSV
+ * entries of ZIP files read by {@link CSVInput}. An entry is keyed by the
+ * SHA-256 hash of the content of the file together with the versions of
+ * the translator and of the ACE path finder it uses, so a changed file, or
+ * a new translator, never gets an old result. When a version is not known
+ * (like in a build from the sources) the cache is not used, since the
+ * results of different builds could not be told apart. The entries are
+ * stored as compressed Java serialization, and only the classes an entry
+ * is made of are read back.
+ *
+ * The cache may be shared by several readers, also in other processes: an
+ * entry is written to a temporary file first and then moved in place. An
+ * entry which can not be read is removed and the file is read again.
+ */
+public final class TranslationCache {
+
+    private static final Logger LOG = LoggerFactory.getLogger(TranslationCache.class);
+    private static final int FORMAT = 2; // Bump on any change of the stored result
+    private static final String SUFFIX = ".ser.gz";
+    private static final String VERSION = version(); // Null if unknown
+    private final File dir;
+    private final String version;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder stores = new LongAdder();
+
+    /**
+     * The partial result of one file, with the internal IDs it was read
+     * with. The IDs are replaced by new ones when the entry is loaded.
+     */
+    static final class Entry {
+
+        final HashMap<String, HashMap<String, Object>> expMap, weatherMap, soilMap;
+        final ArrayList<String> orderring;
+        final HashMap<String, Integer> trtTracker;
+        final ArrayList<String[]> exnameSuffixes; // {index, exname, local treatment number}
+        final ArrayList<String[]> unknownVars; // {variable, path, count}
+
+        Entry(HashMap<String, HashMap<String, Object>> expMap, HashMap<String, HashMap<String, Object>> weatherMap,
+                HashMap<String, HashMap<String, Object>> soilMap, ArrayList<String> orderring,
+                HashMap<String, Integer> trtTracker, ArrayList<String[]> exnameSuffixes, ArrayList<String[]> unknownVars) {
+            this.expMap = expMap;
+            this.weatherMap = weatherMap;
+            this.soilMap = soilMap;
+            this.orderring = orderring;
+            this.trtTracker = trtTracker;
+            this.exnameSuffixes = exnameSuffixes;
+            this.unknownVars = unknownVars;
+        }
+    }
+
+    /**
+     * Reads only the classes the entries are made of, so an entry which was
+     * tampered with can not make any other class be deserialized. Number is
+     * read as the superclass of Integer.
+     */
+    private static final class EntryInputStream extends ObjectInputStream {
+
+        private static final HashSet<String> ALLOWED = new HashSet<String>(Arrays.asList(
+                HashMap.class.getName(), ArrayList.class.getName(), String.class.getName(),
+                Integer.class.getName(), Number.class.getName(), String[].class.getName()));
+
+        private EntryInputStream(InputStream in) throws IOException {
+            super(in);
+        }
+
+        @Override
+        protected Class<?> resolveClass(ObjectStreamClass desc) throws IOException, ClassNotFoundException {
+            if (!ALLOWED.contains(desc.getName())) {
+                throw new InvalidClassException(desc.getName(), "Not allowed in a cache entry");
+            }
+            return super.resolveClass(desc);
+        }
+
+        @Override
+        protected Class<?> resolveProxyClass(String[] interfaces) throws IOException, ClassNotFoundException {
+            throw new InvalidClassException("Proxy", "Not allowed in a cache entry");
+        }
+    }
+
+    /**
+     * Create the cache in the directory, which is created if needed.
+     *
+     * @param dir the directory of the entries
+     * @throws IOException if the directory can not be created
+     */
+    public TranslationCache(File dir) throws IOException {
+        this(dir, VERSION);
+    }
+
+    /**
+     * Create the cache of the entries of the given version.
+     *
+     * @param version the versions of the translator and the path finder, or
+     * null if unknown to not use the cache
+     */
+    TranslationCache(File dir, String version) throws IOException {
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Can not create the cache directory " + dir);
+        }
+        this.dir = dir;
+        this.version = version;
+        if (version == null) {
+            LOG.warn("The translator version is unknown, the cache {} is not used", dir);
+        }
+    }
+
+    /**
+     * Get the versions of the translator and of the ACE path finder, or null
+     * if one of them is unknown.
+     */
+    private static String version() {
+        String translator = version(CSVInput.class, "org.agmip.translators", "translator-generic-csv");
+        String pathfinder = version(AcePathfinder.class, "org.agmip", "ace-lookup");
+        return translator == null || pathfinder == null ? null : translator + "/" + pathfinder;
+    }
+
+    /**
+     * Get the version of the jar of the class, from its manifest or else
+     * from the properties Maven puts into it.
+     */
+    private static String version(Class<?> c, String groupId, String artifactId) {
+        Package p = c.getPackage();
+        String v = p == null ? null : p.getImplementationVersion();
+        if (v != null) {
+            return v;
+        }
+        InputStream in = c.getResourceAsStream("/META-INF/maven/" + groupId + "/" + artifactId + "/pom.properties");
+        if (in == null) {
+            return null;
+        }
+        try {
+            Properties props = new Properties();
+            props.load(in);
+            return props.getProperty("version");
+        } catch (IOException ex) {
+            return null;
+        } finally {
+            try {
+                in.close();
+            } catch (IOException ex) {
+                // Nothing to do
+            }
+        }
+    }
+
+    /**
+     * Get the directory of the entries.
+     */
+    public File getDirectory() {
+        return dir;
+    }
+
+    /**
+     * Get the number of entries found in the cache.
+     */
+    public long getHits() {
+        return hits.sum();
+    }
+
+    /**
+     * Get the number of entries which were not found, or could not be read.
+     */
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    /**
+     * Get the number of entries written to the cache.
+     */
+    public long getStores() {
+        return stores.sum();
+    }
+
+    /**
+     * Remove all the entries.
+     */
+    public void clear() {
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                if (file.getName().endsWith(SUFFIX)) {
+                    file.delete();
+                }
+            }
+        }
+    }
+
+    /**
+     * Get the fingerprint of the content read from the stream, which is
+     * closed: the SHA-256 hash of the content and the versions, in
+     * hexadecimal. It is the key of the entries of this cache and of the
+     * {@link EntityCache}.
+     */
+    static String fingerprint(InputStream in) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IOException(ex);
+        }
+        digest.update((VERSION + "/" + FORMAT + "\n").getBytes(Charset.forName("UTF-8")));
+        try {
+            byte[] buf = new byte[65536];
+            int n;
+            while ((n = in.read(buf)) > 0) {
+                digest.update(buf, 0, n);
+            }
+        } finally {
+            in.close();
+        }
+        StringBuilder sb = new StringBuilder(64);
+        for (byte b : digest.digest()) {
+            sb.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Get the entry of the key, or null if there is none, it can not be read
+     * or the version is unknown.
+     */
+    @SuppressWarnings("unchecked")
+    Entry load(String key) {
+        File file = new File(dir, key + SUFFIX);
+        if (version == null || !file.isFile()) {
+            misses.increment();
+            return null;
+        }
+        try (ObjectInputStream in = new EntryInputStream(new GZIPInputStream(new BufferedInputStream(new FileInputStream(file))))) {
+            if (in.readInt() != FORMAT || !version.equals(in.readUTF())) {
+                throw new IOException("Unknown format or version");
+            }
+            Entry entry = new Entry((HashMap<String, HashMap<String, Object>>) in.readObject(),
+                    (HashMap<String, HashMap<String, Object>>) in.readObject(),
+                    (HashMap<String, HashMap<String, Object>>) in.readObject(),
+                    (ArrayList<String>) in.readObject(),
+                    (HashMap<String, Integer>) in.readObject(),
+                    (ArrayList<String[]>) in.readObject(),
+                    (ArrayList<String[]>) in.readObject());
+            hits.increment();
+            return entry;
+        } catch (IOException | ClassNotFoundException | ClassCastException ex) {
+            LOG.warn("Removing the unreadable cache entry {}: {}", file, ex.toString());
+            file.delete();
+            misses.increment();
+            return null;
+        }
+    }
+
+    /**
+     * Store the entry under the key, unless the version is unknown. A
+     * failure is only logged, since the file can still be read the next
+     * time.
+     */
+    void store(String key, Entry entry) {
+        if (version == null) {
+            return;
+        }
+        File file = new File(dir, key + SUFFIX);
+        File tmp = null;
+        try {
+            tmp = File.createTempFile(key, ".tmp", dir);
+            try (ObjectOutputStream out = new ObjectOutputStream(new GZIPOutputStream(new BufferedOutputStream(new FileOutputStream(tmp))))) {
+                out.writeInt(FORMAT);
+                out.writeUTF(version);
+                out.writeObject(entry.expMap);
+                out.writeObject(entry.weatherMap);
+                out.writeObject(entry.soilMap);
+                out.writeObject(entry.orderring);
+                out.writeObject(entry.trtTracker);
+                out.writeObject(entry.exnameSuffixes);
+                out.writeObject(entry.unknownVars);
+            }
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            stores.increment();
+        } catch (IOException ex) {
+            LOG.warn("Can not store the cache entry {}: {}", file, ex.toString());
+            if (tmp != null) {
+                tmp.delete();
+            }
+        }
+    }
+}
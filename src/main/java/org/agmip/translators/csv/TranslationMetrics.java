@@ -0,0 +1,360 @@
+package org.agmip.translators.csv;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Counts what {@link CSVInput} and {@link CSVOutput} do, for all the readers
+ * and writers using this registry. The counts of a file are added once the
+ * file is done, so the rows are not slowed down by the recording.
+ *
+ * By default the readers and writers use the registry given by
+ * {@link #getDefault()}. Use {@link #setDefault(TranslationMetrics)} with
+ * null to turn the recording off for the readers and writers created
+ * afterwards, or {@code setMetrics(null)} on one of them. The registry can
+ * be shown over JMX with {@link #registerMBean()}.
+ */
+public final class TranslationMetrics implements TranslationMetricsMBean {
+
+    /**
+     * The name the registry is shown under over JMX.
+     */
+    public static final String OBJECT_NAME = "org.agmip.translators.csv:type=TranslationMetrics";
+    private static volatile TranslationMetrics defaultMetrics = new TranslationMetrics();
+    private final LongAdder filesRead = new LongAdder();
+    private final LongAdder filesWritten = new LongAdder();
+    private final LongAdder commentLines = new LongAdder();
+    private final LongAdder headerLines = new LongAdder();
+    private final LongAdder dataLines = new LongAdder();
+    private final LongAdder eventLines = new LongAdder();
+    private final LongAdder domeLines = new LongAdder();
+    private final LongAdder blankLines = new LongAdder();
+    private final LongAdder cells = new LongAdder();
+    private final LongAdder unknownValues = new LongAdder();
+    private final LongAdder dateConversions = new LongAdder();
+    private final LongAdder stringPoolHits = new LongAdder();
+    private final LongAdder stringPoolMisses = new LongAdder();
+    private final LongAdder bytesRead = new LongAdder();
+    private final LongAdder bytesWritten = new LongAdder();
+    private final Histogram readTimes = new Histogram();
+    private final Histogram cleanUpTimes = new Histogram();
+    private final Histogram writeTimes = new Histogram();
+
+    /**
+     * The phases whose times are recorded.
+     */
+    public enum Phase {
+        /**
+         * Reading one CSV file or ZIP entry.
+         */
+        READ_CSV,
+        /**
+         * Building the translated data at the end of a read.
+         */
+        CLEAN_UP,
+        /**
+         * Writing one weather file.
+         */
+        WRITE_WTH
+    }
+
+    /**
+     * A histogram of times, in buckets of powers of two nanoseconds.
+     */
+    public static final class Histogram {
+
+        private final AtomicLongArray buckets = new AtomicLongArray(64);
+        private final LongAdder total = new LongAdder();
+        private final AtomicLong max = new AtomicLong();
+
+        void record(long nanos) {
+            nanos = Math.max(1, nanos);
+            buckets.incrementAndGet(63 - Long.numberOfLeadingZeros(nanos));
+            total.add(nanos);
+            long current = max.get();
+            while (nanos > current && !max.compareAndSet(current, nanos)) {
+                current = max.get();
+            }
+        }
+
+        /**
+         * Get the number of recorded times.
+         */
+        public long getCount() {
+            long ret = 0;
+            for (int i = 0; i < buckets.length(); i++) {
+                ret += buckets.get(i);
+            }
+            return ret;
+        }
+
+        /**
+         * Get the mean of the recorded times in milliseconds, or 0 if there
+         * are none.
+         */
+        public double getMeanMillis() {
+            long count = getCount();
+            return count == 0 ? 0 : total.sum() / 1e6 / count;
+        }
+
+        /**
+         * Get the longest recorded time in milliseconds.
+         */
+        public double getMaxMillis() {
+            return max.get() / 1e6;
+        }
+
+        /**
+         * Get the time in milliseconds under which the given share of the
+         * recorded times are, rounded up to the bucket bound, or 0 if there
+         * are no times.
+         *
+         * @param share the share, between 0 and 1, like 0.99
+         */
+        public double getPercentileMillis(double share) {
+            long count = getCount();
+            if (count == 0) {
+                return 0;
+            }
+            long rank = (long) Math.ceil(share * count);
+            long seen = 0;
+            for (int i = 0; i < buckets.length(); i++) {
+                seen += buckets.get(i);
+                if (seen >= rank) {
+                    return Math.min(max.get(), i >= 62 ? Long.MAX_VALUE : 1L << (i + 1)) / 1e6;
+                }
+            }
+            return getMaxMillis();
+        }
+
+        void reset() {
+            for (int i = 0; i < buckets.length(); i++) {
+                buckets.set(i, 0);
+            }
+            total.reset();
+            max.set(0);
+        }
+    }
+
+    /**
+     * Get the registry used by the readers and writers by default, or null
+     * if the recording is turned off.
+     */
+    public static TranslationMetrics getDefault() {
+        return defaultMetrics;
+    }
+
+    /**
+     * Set the registry used by the readers and writers created afterwards.
+     *
+     * @param metrics the registry, or null to turn the recording off
+     */
+    public static void setDefault(TranslationMetrics metrics) {
+        defaultMetrics = metrics;
+    }
+
+    /**
+     * Show the registry over JMX, in the platform MBean server, replacing
+     * the registry shown before.
+     *
+     * @return the name of the MBean, see {@link #OBJECT_NAME}
+     * @throws JMException if the MBean can not be registered
+     */
+    public ObjectName registerMBean() throws JMException {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = new ObjectName(OBJECT_NAME);
+        if (server.isRegistered(name)) {
+            server.unregisterMBean(name);
+        }
+        server.registerMBean(this, name);
+        return name;
+    }
+
+    /**
+     * Get the histogram of the times of the phase.
+     */
+    public Histogram getTimes(Phase phase) {
+        switch (phase) {
+            case READ_CSV:
+                return readTimes;
+            case CLEAN_UP:
+                return cleanUpTimes;
+            default:
+                return writeTimes;
+        }
+    }
+
+    void recordRead(CSVInput.ReadCounts counts, long nanos) {
+        filesRead.increment();
+        commentLines.add(counts.comments);
+        headerLines.add(counts.headers);
+        dataLines.add(counts.rows - counts.events);
+        eventLines.add(counts.events);
+        domeLines.add(counts.dome);
+        blankLines.add(counts.blank);
+        cells.add(counts.cells);
+        unknownValues.add(counts.unknown);
+        dateConversions.add(counts.dates);
+        stringPoolHits.add(counts.poolHits);
+        stringPoolMisses.add(counts.poolMisses);
+        readTimes.record(nanos);
+    }
+
+    void recordBytesRead(long bytes) {
+        bytesRead.add(bytes);
+    }
+
+    void recordCleanUp(long nanos) {
+        cleanUpTimes.record(nanos);
+    }
+
+    void recordWrite(long bytes, long nanos) {
+        filesWritten.increment();
+        bytesWritten.add(bytes);
+        writeTimes.record(nanos);
+    }
+
+    @Override
+    public long getFilesRead() {
+        return filesRead.sum();
+    }
+
+    @Override
+    public long getFilesWritten() {
+        return filesWritten.sum();
+    }
+
+    @Override
+    public long getCommentLines() {
+        return commentLines.sum();
+    }
+
+    @Override
+    public long getHeaderLines() {
+        return headerLines.sum();
+    }
+
+    @Override
+    public long getDataLines() {
+        return dataLines.sum();
+    }
+
+    @Override
+    public long getEventLines() {
+        return eventLines.sum();
+    }
+
+    @Override
+    public long getDomeLines() {
+        return domeLines.sum();
+    }
+
+    @Override
+    public long getBlankLines() {
+        return blankLines.sum();
+    }
+
+    @Override
+    public long getCells() {
+        return cells.sum();
+    }
+
+    @Override
+    public long getUnknownValues() {
+        return unknownValues.sum();
+    }
+
+    @Override
+    public long getDateConversions() {
+        return dateConversions.sum();
+    }
+
+    @Override
+    public long getStringPoolHits() {
+        return stringPoolHits.sum();
+    }
+
+    @Override
+    public long getStringPoolMisses() {
+        return stringPoolMisses.sum();
+    }
+
+    @Override
+    public double getStringPoolHitRate() {
+        long hits = stringPoolHits.sum();
+        long lookups = hits + stringPoolMisses.sum();
+        return lookups == 0 ? 0 : (double) hits / lookups;
+    }
+
+    @Override
+    public long getBytesRead() {
+        return bytesRead.sum();
+    }
+
+    @Override
+    public long getBytesWritten() {
+        return bytesWritten.sum();
+    }
+
+    @Override
+    public long getReadCsvCount() {
+        return readTimes.getCount();
+    }
+
+    @Override
+    public double getReadCsvMeanMillis() {
+        return readTimes.getMeanMillis();
+    }
+
+    @Override
+    public double getReadCsv99thMillis() {
+        return readTimes.getPercentileMillis(0.99);
+    }
+
+    @Override
+    public long getCleanUpCount() {
+        return cleanUpTimes.getCount();
+    }
+
+    @Override
+    public double getCleanUpMeanMillis() {
+        return cleanUpTimes.getMeanMillis();
+    }
+
+    @Override
+    public double getCleanUp99thMillis() {
+        return cleanUpTimes.getPercentileMillis(0.99);
+    }
+
+    @Override
+    public long getWriteWthCount() {
+        return writeTimes.getCount();
+    }
+
+    @Override
+    public double getWriteWthMeanMillis() {
+        return writeTimes.getMeanMillis();
+    }
+
+    @Override
+    public double getWriteWth99thMillis() {
+        return writeTimes.getPercentileMillis(0.99);
+    }
+
+    @Override
+    public void reset() {
+        for (LongAdder counter : new LongAdder[]{filesRead, filesWritten, commentLines, headerLines,
+            dataLines, eventLines, domeLines, blankLines, cells, unknownValues, dateConversions,
+            stringPoolHits, stringPoolMisses, bytesRead, bytesWritten}) {
+            counter.reset();
+        }
+        readTimes.reset();
+        cleanUpTimes.reset();
+        writeTimes.reset();
+    }
+}
@@ -0,0 +1,66 @@
+package org.agmip.translators.csv;
+
+/**
+ * The JMX view of {@link TranslationMetrics}. The times are in milliseconds.
+ */
+public interface TranslationMetricsMBean {
+
+    long getFilesRead();
+
+    long getFilesWritten();
+
+    long getCommentLines();
+
+    long getHeaderLines();
+
+    long getDataLines();
+
+    long getEventLines();
+
+    long getDomeLines();
+
+    long getBlankLines();
+
+    long getCells();
+
+    long getUnknownValues();
+
+    long getDateConversions();
+
+    long getStringPoolHits();
+
+    long getStringPoolMisses();
+
+    /**
+     * Get the share of the string pool lookups which found a pooled string,
+     * between 0 and 1.
+     */
+    double getStringPoolHitRate();
+
+    long getBytesRead();
+
+    long getBytesWritten();
+
+    long getReadCsvCount();
+
+    double getReadCsvMeanMillis();
+
+    double getReadCsv99thMillis();
+
+    long getCleanUpCount();
+
+    double getCleanUpMeanMillis();
+
+    double getCleanUp99thMillis();
+
+    long getWriteWthCount();
+
+    double getWriteWthMeanMillis();
+
+    double getWriteWth99thMillis();
+
+    /**
+     * Set all the counts and times back to 0.
+     */
+    void reset();
+}
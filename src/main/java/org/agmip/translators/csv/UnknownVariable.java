@@ -0,0 +1,48 @@
+package org.agmip.translators.csv;
+
+/**
+ * A variable read by {@link CSVInput} which is not known by the ACE path
+ * finder, with where its values were put and how many of them were read.
+ */
+public final class UnknownVariable {
+
+    private final String variable;
+    private final String path;
+    private int count;
+
+    UnknownVariable(String variable, String path) {
+        this.variable = variable;
+        this.path = path;
+    }
+
+    /**
+     * Get the variable name, in lower case.
+     */
+    public String getVariable() {
+        return variable;
+    }
+
+    /**
+     * Get the ACE path the values were put into, like "weather@dailyWeather",
+     * or "" if they were put at the top of the entity.
+     */
+    public String getPath() {
+        return path;
+    }
+
+    /**
+     * Get the number of values read.
+     */
+    public int getCount() {
+        return count;
+    }
+
+    void add(int count) {
+        this.count += count;
+    }
+
+    @Override
+    public String toString() {
+        return path.isEmpty() ? variable + " (" + count + ")" : path + ":" + variable + " (" + count + ")";
+    }
+}
@@ -0,0 +1,54 @@
+package org.agmip.translators.csv;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+/**
+ * Collects the unknown variables of one translation, in the order they are
+ * first read. Each translation has its own tracker, so it is not shared
+ * between threads.
+ */
+final class UnknownVariableTracker {
+
+    private final LinkedHashMap<List<String>, UnknownVariable> variables = new LinkedHashMap<List<String>, UnknownVariable>();
+
+    /**
+     * Get the entry of the variable put into the path, creating it with a
+     * count of 0 if it is new.
+     *
+     * @param variable the variable name
+     * @param path the ACE path, or null for the top of the entity
+     */
+    UnknownVariable get(String variable, String path) {
+        if (path == null) {
+            path = "";
+        }
+        List<String> key = Arrays.asList(path, variable);
+        UnknownVariable ret = variables.get(key);
+        if (ret == null) {
+            ret = new UnknownVariable(variable, path);
+            variables.put(key, ret);
+        }
+        return ret;
+    }
+
+    /**
+     * Add the counts of another tracker, keeping the order of this one for
+     * the variables it already has.
+     */
+    void addAll(UnknownVariableTracker other) {
+        for (UnknownVariable var : other.variables.values()) {
+            get(var.getVariable(), var.getPath()).add(var.getCount());
+        }
+    }
+
+    void clear() {
+        variables.clear();
+    }
+
+    List<UnknownVariable> toList() {
+        return new ArrayList<UnknownVariable>(variables.values());
+    }
+}
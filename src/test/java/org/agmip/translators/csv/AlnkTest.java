@@ -61,6 +61,37 @@ public class AlnkTest {
         assertTrue(true);
     }
     
+    @Test
+    public void repeatedOutputTest() throws Exception {
+        resource = this.getClass().getResource("/Linkage.alnk");
+        Map links = toACEFormat(reader.readFile(resource.getPath()));
+        writer.writeFile("output_alnk", links);
+        File first = writer.getAlnkFile();
+        writer.writeFile("output_alnk", links);
+        File second = writer.getAlnkFile();
+        assertEquals("Linkage.alnk", first.getName());
+        assertEquals("Linkage_1.alnk", second.getName());
+        assertEquals(first.length(), second.length());
+        assertTrue(first.delete());
+        assertTrue(second.delete());
+        assertTrue(first.getParentFile().delete());
+    }
+
+    @Test
+    public void linkIdsTest() throws Exception {
+        resource = this.getClass().getResource("/link_ids.alnk");
+        Map links = reader.readFile(resource.getPath());
+        Map ovlLinks = (Map) links.get("link_overlay");
+        Map stgLinks = (Map) links.get("link_stragty");
+        // An ID which is a prefix of one already linked is kept, and the
+        // IDs linked again are only kept once
+        assertEquals("MACHAKOS-1----FIELD-2|MACHAKOS-1----FIELD", ovlLinks.get("EXNAME_EX1"));
+        assertEquals("MACHAKOS-1----BASELINE", stgLinks.get("EXNAME_EX1"));
+        assertEquals("MACHAKOS-3----FIELD", ovlLinks.get("WST_ID_MK10"));
+        assertEquals("MACHAKOS-3----FIELD", ovlLinks.get("SOIL_ID_TOA0235063"));
+        assertFalse(links.containsKey("link_rotational"));
+    }
+
     private Map toACEFormat(Map links) {
         HashMap ret = new HashMap();
         ArrayList<HashMap> arr = new ArrayList();
@@ -0,0 +1,66 @@
+package org.agmip.translators.csv;
+
+import java.io.FileInputStream;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class BatchInputTest {
+    private BatchInput translator;
+    private URL resource = null;
+
+    @Before
+    public void setup() {
+        translator = new BatchInput();
+        resource = this.getClass().getResource("/batch_test.csv");
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void runIteratorTest() throws Exception {
+        Map dome = translator.readFile(resource.getPath());
+        ArrayList<HashMap<String, Object>> groups = (ArrayList<HashMap<String, Object>>) dome.get("batch_group");
+        assertEquals(2, groups.size());
+
+        BatchRunIterator runs = BatchInput.readRuns(new FileInputStream(resource.getPath()));
+        try {
+            for (HashMap<String, Object> group : groups) {
+                for (HashMap<String, Object> expected : (ArrayList<HashMap<String, Object>>) group.get("batch_runs")) {
+                    assertTrue(runs.hasNext());
+                    HashMap<String, Object> run = runs.next();
+                    assertEquals(group.get("group_id"), run.get("group_id"));
+                    assertEquals(expected.get("batch_run#"), run.get("batch_run#"));
+                    assertEquals(expected.get("rules"), run.get("rules"));
+                }
+            }
+            assertFalse(runs.hasNext());
+            assertEquals(dome.get("info"), runs.getInfo());
+        } finally {
+            runs.close();
+        }
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void runIndexTest() throws Exception {
+        translator.readFile(resource.getPath());
+        HashMap<String, Object> group = translator.getBatchDome("G1");
+        ArrayList<HashMap<String, Object>> batchRuns = (ArrayList<HashMap<String, Object>>) group.get("batch_runs");
+        assertSame(batchRuns.get(1), translator.getBatchRun(group, "2", false));
+        assertTrue(translator.getBatchRun(group, "9", false).isEmpty());
+        assertEquals(2, batchRuns.size());
+
+        // A run added outside of the reader is found too
+        HashMap<String, Object> added = new HashMap<String, Object>();
+        added.put("batch_run#", "9");
+        batchRuns.add(added);
+        assertSame(added, translator.getBatchRun(group, "9", false));
+        assertSame(batchRuns.get(0), translator.getBatchRun(group, "1", true));
+        assertEquals(3, batchRuns.size());
+    }
+}
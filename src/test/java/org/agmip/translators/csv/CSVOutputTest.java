@@ -1,8 +1,12 @@
 package org.agmip.translators.csv;
 
 import java.io.File;
+import java.io.IOException;
 import java.net.URL;
+import java.nio.file.Files;
+import java.util.AbstractList;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
 import static org.junit.Assert.*;
@@ -50,4 +54,115 @@ public class CSVOutputTest {
         assertTrue(outputs.get(3).delete());
         new File("output").delete();
     }
+
+    @Test
+    public void parallelWriterTest() throws Exception {
+        resource = this.getClass().getResource("/Machakos_csv.zip");
+        Map data = reader.readFile(resource.getPath());
+        writer.setThreads(4);
+        writer.writeFile("output", data);
+        ArrayList<File> outputs = writer.getOutputWthFiles();
+        ArrayList<HashMap> weathers = (ArrayList<HashMap>) data.get("weathers");
+        assertEquals(weathers.size(), outputs.size());
+        for (int i = 0; i < outputs.size(); i++) {
+            assertEquals(weathers.get(i).get("wst_id") + ".csv", outputs.get(i).getName());
+            assertTrue(outputs.get(i).length() > 0);
+            assertTrue(outputs.get(i).delete());
+        }
+        new File("output").delete();
+    }
+
+    @Test
+    public void parallelWriterFailureTest() throws Exception {
+        resource = this.getClass().getResource("/Machakos_csv.zip");
+        Map data = reader.readFile(resource.getPath());
+        HashMap<String, Object> broken = new HashMap();
+        broken.put("wst_id", "BROKEN");
+        broken.put("dailyWeather", new AbstractList<Map<String, String>>() {
+            @Override
+            public Map<String, String> get(int index) {
+                throw new IllegalStateException("Broken daily weather");
+            }
+
+            @Override
+            public int size() {
+                return 1;
+            }
+        });
+        ((ArrayList) data.get("weathers")).add(1, broken);
+        writer.setThreads(4);
+        try {
+            writer.writeFile("output_failed", data);
+            fail("The broken station was written");
+        } catch (IOException ex) {
+            assertTrue(ex.getCause() instanceof IllegalStateException);
+        }
+        // The file of the broken station is deleted, the completed ones are kept and listed
+        File dir = new File("output_failed");
+        assertFalse(new File(dir, "BROKEN.csv").exists());
+        ArrayList<File> outputs = writer.getOutputWthFiles();
+        assertEquals(dir.listFiles().length, outputs.size());
+        for (File output : outputs) {
+            assertTrue(output.length() > 0);
+            assertTrue(output.delete());
+        }
+        assertTrue(dir.delete());
+    }
+
+    @Test
+    public void columnarWriterTest() throws Exception {
+        resource = this.getClass().getResource("/Machakos_csv.zip");
+        Map data = reader.readFile(resource.getPath());
+        CSVInput columnarReader = new CSVInput();
+        columnarReader.setColumnarSeries(true);
+        Map columnarData = columnarReader.readFile(resource.getPath());
+        for (int sample : new int[]{0, 1}) {
+            writer.setSchemaSampleRows(sample);
+            writer.writeFile("output", data);
+            ArrayList<File> expected = writer.getOutputWthFiles();
+            CSVOutput columnarWriter = new CSVOutput();
+            columnarWriter.setSchemaSampleRows(sample);
+            columnarWriter.writeFile("output_columnar", columnarData);
+            ArrayList<File> outputs = columnarWriter.getOutputWthFiles();
+            assertEquals(expected.size(), outputs.size());
+            for (int i = 0; i < outputs.size(); i++) {
+                assertArrayEquals(Files.readAllBytes(expected.get(i).toPath()), Files.readAllBytes(outputs.get(i).toPath()));
+                assertTrue(expected.get(i).delete());
+                assertTrue(outputs.get(i).delete());
+            }
+        }
+        new File("output").delete();
+        new File("output_columnar").delete();
+    }
+
+    @Test
+    public void dailyColumnsTest() throws Exception {
+        ArrayList<HashMap<String, String>> daily = new ArrayList();
+        HashMap<String, String> day = new HashMap();
+        day.put("w_date", "19800101");
+        day.put("tmax", "29.7");
+        daily.add(day);
+        day = new HashMap();
+        day.put("w_date", "19800102");
+        day.put("tmax", "30");
+        day.put("rain", "1.5");
+        daily.add(day);
+        HashMap<String, Object> weather = new HashMap();
+        weather.put("wst_id", "COLS");
+        weather.put("dailyWeather", daily);
+        HashMap data = new HashMap();
+        data.put("weather", weather);
+
+        writer.writeFile("output", data);
+        File output = writer.getOutputWthFiles().get(0);
+        Map result = reader.readFile(output.getPath());
+        assertTrue(output.delete());
+        new File("output").delete();
+        HashMap<String, Object> readBack = (HashMap) ((ArrayList) result.get("weathers")).get(0);
+        ArrayList<HashMap<String, String>> readDaily = (ArrayList) readBack.get("dailyWeather");
+        assertEquals(2, readDaily.size());
+        assertNull(readDaily.get(0).get("rain"));
+        assertEquals("1.5", readDaily.get(1).get("rain"));
+        assertEquals("30", readDaily.get(1).get("tmax"));
+    }
 }
@@ -0,0 +1,123 @@
+package org.agmip.translators.csv;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import au.com.bytecode.opencsv.CSVReader;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class CSVTokenizerTest {
+
+    private static final Charset LATIN1 = Charset.forName("ISO-8859-1");
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private static final String[] INPUTS = {
+        "",
+        "a,b,c",
+        "a,b,c\n1,2,3\n",
+        "a,,c,\n,\n",
+        "\"a\",\"b,c\",d",
+        "\"a \"\"quoted\"\" value\",b",
+        "\"\"\"\",\"\"",
+        "abc\"def\"ghi,x",
+        "ab\"c,d\"e,f",
+        "a\"b,\"c\"d,e",
+        "a,\"b\nc\",d\ne,f",
+        "\"multi\n\nline\",x\ny",
+        "a,b\r\nc,d\r\n",
+        "a,b\rc,d\r",
+        "\"a\rb\",c\r\nd",
+        "a,\"b\r\nc\"\r\nd,e",
+        "a,\"unterminated",
+        "a,\"unterminated\n",
+        "a,\"unterminated\nover lines",
+        "\"",
+        "x\"",
+        "\n\n\n",
+        "\r\n\r\n"
+    };
+
+    private static final String[] TEXTS = {
+        "caf\u00e9,na\u00efve,\"\u00e9t\u00e9\"",
+        "\u00e9\u00e9\"\u00e9\",x",
+        "\u00e9\"a\"b,c"
+    };
+
+    private static final String[] UTF8_TEXTS = {
+        "\u20ac\u20ac\"\u20ac\",x",
+        "\u65e5\u672c\"\u8a9e\"\u6587,\"\u20ac\n\u20ac\"",
+        "\ud834\udd1e\"a\"b,c",
+        "\ud834\udd1e\ud834\udd1e\"a\"b,c"
+    };
+
+    private static List<List<String>> readCSVReader(byte[] bytes, Charset charset, char separator) throws Exception {
+        CSVReader reader = new CSVReader(new InputStreamReader(new ByteArrayInputStream(bytes), charset), separator);
+        List<List<String>> rows = new ArrayList<List<String>>();
+        String[] line;
+        while ((line = reader.readNext()) != null) {
+            rows.add(Arrays.asList(line));
+        }
+        reader.close();
+        return rows;
+    }
+
+    private static List<List<String>> readTokenizer(byte[] bytes, Charset charset, char separator) {
+        CSVTokenizer tokenizer = new CSVTokenizer(ByteBuffer.wrap(bytes), separator, charset);
+        List<List<String>> rows = new ArrayList<List<String>>();
+        while (tokenizer.next()) {
+            List<String> row = new ArrayList<String>();
+            for (int i = 0; i < tokenizer.size(); i++) {
+                row.add(tokenizer.get(i));
+            }
+            rows.add(row);
+        }
+        return rows;
+    }
+
+    private static void assertSameRows(String input, Charset charset, char separator) throws Exception {
+        byte[] bytes = input.getBytes(charset);
+        assertEquals(input, readCSVReader(bytes, charset, separator), readTokenizer(bytes, charset, separator));
+    }
+
+    @Test
+    public void tableTest() throws Exception {
+        for (String input : INPUTS) {
+            assertSameRows(input, LATIN1, ',');
+            assertSameRows(input, UTF8, ',');
+            assertSameRows(input.replace(',', ';'), UTF8, ';');
+        }
+        for (String input : TEXTS) {
+            assertSameRows(input, LATIN1, ',');
+            assertSameRows(input, UTF8, ',');
+        }
+        for (String input : UTF8_TEXTS) {
+            assertSameRows(input, UTF8, ',');
+        }
+    }
+
+    @Test
+    public void randomTest() throws Exception {
+        Random random = new Random(42);
+        String[] latin1 = {"a", "b", ",", "\"", "\"", "\r", "\n", "\r\n", "\u00e9"};
+        String[] utf8 = {"a", ",", "\"", "\"", "\n", "\r\n", "\u00e9", "\u20ac", "\ud834\udd1e"};
+        StringBuilder sb = new StringBuilder();
+        for (int n = 0; n < 20000; n++) {
+            boolean isUtf8 = n % 2 == 1;
+            String[] parts = isUtf8 ? utf8 : latin1;
+            sb.setLength(0);
+            int len = random.nextInt(16);
+            for (int i = 0; i < len; i++) {
+                sb.append(parts[random.nextInt(parts.length)]);
+            }
+            assertSameRows(sb.toString(), isUtf8 ? UTF8 : LATIN1, ',');
+        }
+    }
+}
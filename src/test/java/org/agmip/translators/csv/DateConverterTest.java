@@ -0,0 +1,111 @@
+package org.agmip.translators.csv;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Random;
+
+import org.agmip.common.Functions;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class DateConverterTest {
+
+    private static final String[] CSV_DATES = {
+        "2001-01-01", "2001/01/01", "2001-01/01", "2001/1-1", "2001-1-1", "2001-12-31",
+        "2001-00-15", "2001-13-01", "2001-59-31", "2001-60-01", "2001-99-01",
+        "2001-01-00", "2001-01-31", "2001-01-32", "2001-02-30", "2001-1-0", "2001-1-32",
+        "2000-02-29", "2004-02-29", "1900-02-29", "2001-02-29", "1500-02-29", "1582-10-10",
+        "0000-01-01", "0001-01-01", "0999-12-31", "9999-12-31",
+        "", "abc", "2001", "2001-", "2001-01", "2001-01-", "2001--1-1", "2001-1--1",
+        "2001-001-01", "2001-01-001", "2001-1-1x", "2001-01-01 ", " 2001-01-01",
+        "20010101", "2001.01.01", "01-01-2001", "-2001-01-01", "2001-+1-01", "2001-1-+1"
+    };
+
+    private static final String[] ACE_DATES = {
+        "20010101", "20011231", "20010001", "20011301", "20015901", "20010100", "20010132",
+        "20010230", "20000229", "20040229", "19000229", "20010229", "15000229", "15821010",
+        "15830101", "00000101", "00010101", "99991231",
+        "", "abc", "2001", "2001010", "200101011", "2001-01-01", "2001010x", " 2001010",
+        "+2001010", "-2001010"
+    };
+
+    // The conversion CSVInput did before DateConverter
+    private static String oldAceDate(String value) {
+        try {
+            value = value.replace("/", "-");
+            return new SimpleDateFormat("yyyymmdd").format(new SimpleDateFormat("yyyy-mm-dd").parse(value));
+        } catch (Exception ex) {
+            return ex.getClass().getName();
+        }
+    }
+
+    private static String newAceDate(String value) {
+        try {
+            return DateConverter.toAceDate(value);
+        } catch (Exception ex) {
+            return ex.getClass().getName();
+        }
+    }
+
+    // The conversion CSVOutput did before DateConverter
+    private static String oldCsvDate(String value) {
+        return Functions.formatAgmipDateString(value, "yyyy-MM-dd");
+    }
+
+    @Test
+    public void toAceDateTest() {
+        for (String value : CSV_DATES) {
+            assertEquals(value, oldAceDate(value), newAceDate(value));
+        }
+        assertEquals(oldAceDate(null), newAceDate(null));
+    }
+
+    @Test
+    public void toCsvDateTest() {
+        for (String value : ACE_DATES) {
+            assertEquals(value, oldCsvDate(value), DateConverter.toCsvDate(value));
+        }
+        assertNull(DateConverter.toCsvDate(null));
+    }
+
+    @Test
+    public void cachedTest() throws ParseException {
+        // The memoized results are the same as the first ones
+        for (int n = 0; n < 2; n++) {
+            assertEquals("20010101", DateConverter.toAceDate("2001/1/1"));
+            assertEquals("2000-02-29", DateConverter.toCsvDate("20000229"));
+            assertEquals("2001-03-01", DateConverter.toCsvDate("20010229"));
+        }
+    }
+
+    @Test
+    public void randomDatesTest() {
+        Random random = new Random(42);
+        String[] seps = {"-", "/"};
+        char[] chars = {'0', '1', '2', '9', '-', '/', 'x'};
+        StringBuilder sb = new StringBuilder();
+        for (int n = 0; n < 20000; n++) {
+            String value = String.format("%04d%s%s%s%s", random.nextInt(3000), seps[random.nextInt(2)],
+                    pad(random.nextInt(80), random.nextBoolean()), seps[random.nextInt(2)],
+                    pad(random.nextInt(40), random.nextBoolean()));
+            assertEquals(value, oldAceDate(value), newAceDate(value));
+
+            value = String.format("%04d%02d%02d", random.nextInt(3000), random.nextInt(14), random.nextInt(33));
+            assertEquals(value, oldCsvDate(value), DateConverter.toCsvDate(value));
+
+            sb.setLength(0);
+            int len = 6 + random.nextInt(6);
+            for (int i = 0; i < len; i++) {
+                sb.append(chars[random.nextInt(chars.length)]);
+            }
+            value = sb.toString();
+            assertEquals(value, oldAceDate(value), newAceDate(value));
+            assertEquals(value, oldCsvDate(value), DateConverter.toCsvDate(value));
+        }
+    }
+
+    private static String pad(int value, boolean twoDigits) {
+        return twoDigits && value < 10 ? "0" + value : String.valueOf(value);
+    }
+}
@@ -87,4 +87,18 @@ public class DomeInputTest {
         }
         assertTrue(true);
     }
-}
\ No newline at end of file
+
+    @Test
+    public void domeLinkIdsTest() throws Exception {
+        resource = this.getClass().getResource("/link_ids.csv");
+        Map dome = translator.readFile(resource.getPath());
+        Map ovlLinks = (Map) dome.get("link_overlay");
+        Map stgLinks = (Map) dome.get("link_stragty");
+        // The IDs of the lines of a key are all appended, even when repeated
+        assertEquals("MACHAKOS-1----FIELD|MACHAKOS-1----FIELD|MACHAKOS-2----FIELD", ovlLinks.get("EXNAME_EX1"));
+        // The first ID column of a new key is taken even when it is a comment
+        assertEquals("! No DOME group for EX2|MACHAKOS-9----FIELD", ovlLinks.get("EXNAME_EX2"));
+        // An ID which is a prefix of one already linked is kept
+        assertEquals("MACHAKOS-1----SEASONAL-2|MACHAKOS-1----SEASONAL", stgLinks.get("EXNAME_EX3"));
+    }
+}
@@ -0,0 +1,84 @@
+package org.agmip.translators.csv;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class EntityCacheTest {
+
+    private static HashMap<String, Object> newWeather() {
+        ArrayList<HashMap<String, String>> daily = new ArrayList<HashMap<String, String>>();
+        for (String date : new String[]{"19800101", "19800102"}) {
+            HashMap<String, String> day = new HashMap<String, String>();
+            day.put("w_date", date);
+            day.put("tmax", "29.7");
+            daily.add(day);
+        }
+        HashMap<String, Object> weather = new HashMap<String, Object>();
+        weather.put("wst_id", "MK07");
+        weather.put("dailyWeather", daily);
+        return weather;
+    }
+
+    private static EntityCache.Entry freeze(HashMap<String, Object> weather, boolean columnar) {
+        return EntityCache.freeze(Collections.singletonList(weather), Collections.<HashMap<String, Object>>emptyList(),
+                Collections.<String[]>emptyList(), columnar);
+    }
+
+    @Test
+    public void freezeTest() {
+        HashMap<String, Object> weather = newWeather();
+        EntityCache.Entry entry = freeze(weather, false);
+        HashMap<String, Object> frozen = entry.weathers.get(0);
+        assertEquals(weather, frozen);
+        assertTrue(frozen.get("dailyWeather") instanceof ArrayList);
+        assertTrue(entry.bytes > 0);
+        try {
+            ((List) frozen.get("dailyWeather")).subList(0, 1).set(0, null);
+            fail("The frozen list can be changed through a sub list");
+        } catch (UnsupportedOperationException ex) {
+        }
+
+        frozen = freeze(weather, true).weathers.get(0);
+        assertEquals(weather, frozen);
+        assertTrue(frozen.get("dailyWeather") instanceof ColumnarSeries);
+
+        // Only the series are stored by column
+        HashMap<String, Object> soil = new HashMap<String, Object>();
+        soil.put("soil_id", "MKSL0001");
+        soil.put("soilLayer", newWeather().get("dailyWeather"));
+        frozen = EntityCache.freeze(Collections.<HashMap<String, Object>>emptyList(), Collections.singletonList(soil),
+                Collections.<String[]>emptyList(), true).soils.get(0);
+        assertEquals(soil, frozen);
+        assertTrue(frozen.get("soilLayer") instanceof ArrayList);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void serializationTest() throws Exception {
+        HashMap<String, Object> weather = newWeather();
+        HashMap<String, Object> frozen = freeze(weather, false).weathers.get(0);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ObjectOutputStream out = new ObjectOutputStream(bytes);
+        out.writeObject(frozen);
+        out.close();
+        ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+        HashMap<String, Object> copy = (HashMap<String, Object>) in.readObject();
+        in.close();
+
+        // The copy is made of plain, changeable maps and lists
+        assertEquals(HashMap.class, copy.getClass());
+        assertEquals(ArrayList.class, copy.get("dailyWeather").getClass());
+        assertEquals(HashMap.class, ((List) copy.get("dailyWeather")).get(0).getClass());
+        assertEquals(weather, copy);
+        copy.put("wst_id", "MK10");
+    }
+}
@@ -0,0 +1,57 @@
+package org.agmip.translators.csv;
+
+import java.util.Random;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class ExnameUtilTest {
+
+    // The patterns AlnkOutput used before ExnameUtil
+    private static final String TREATMENT = "_\\d+$";
+    private static final String SEASONAL = "_\\d+__\\d+$";
+
+    private static final String[] EXNAMES = {
+        "", "_", "__", "_1", "__1", "1", "12", "a", "a_", "a__",
+        "a_1", "a_12", "a1", "a_1_", "a_1_2", "a__1", "a_1__", "a_1__2",
+        "a_1___2", "a__1__2", "a_1__2__3", "_1__2", "__1__2", "a_b_1",
+        "MACH0001", "MACH0001_1", "MACH0001_10__2", "MACH_0001", "a_x1", "a_1x"
+    };
+
+    @Test
+    public void stripTreatmentTest() {
+        for (String exname : EXNAMES) {
+            assertEquals(exname, exname.replaceAll(TREATMENT, ""), ExnameUtil.stripTreatment(exname));
+        }
+    }
+
+    @Test
+    public void stripSeasonalTest() {
+        for (String exname : EXNAMES) {
+            assertEquals(exname, exname.replaceAll(SEASONAL, ""), ExnameUtil.stripSeasonal(exname));
+        }
+    }
+
+    @Test
+    public void randomNamesTest() {
+        Random random = new Random(42);
+        char[] chars = {'a', '_', '1', '2'};
+        StringBuilder sb = new StringBuilder();
+        for (int n = 0; n < 20000; n++) {
+            sb.setLength(0);
+            int len = random.nextInt(10);
+            for (int i = 0; i < len; i++) {
+                sb.append(chars[random.nextInt(chars.length)]);
+            }
+            String exname = sb.toString();
+            assertEquals(exname, exname.replaceAll(TREATMENT, ""), ExnameUtil.stripTreatment(exname));
+            assertEquals(exname, exname.replaceAll(SEASONAL, ""), ExnameUtil.stripSeasonal(exname));
+        }
+    }
+
+    @Test
+    public void addTreatmentTest() {
+        assertEquals("MACH0001_1", ExnameUtil.addTreatment("MACH0001", 1));
+        assertEquals("MACH0001", ExnameUtil.stripTreatment(ExnameUtil.addTreatment("MACH0001", 12)));
+    }
+}
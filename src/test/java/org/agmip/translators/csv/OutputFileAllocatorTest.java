@@ -0,0 +1,82 @@
+package org.agmip.translators.csv;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class OutputFileAllocatorTest {
+    private File dir;
+
+    @Before
+    public void setup() {
+        dir = new File("output_allocator");
+        assertTrue(dir.mkdirs());
+    }
+
+    @After
+    public void cleanup() {
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File f : files) {
+                f.delete();
+            }
+        }
+        dir.delete();
+    }
+
+    @Test
+    public void numberingTest() throws Exception {
+        assertTrue(new File(dir, "MK07_1.csv").createNewFile());
+        OutputFileAllocator allocator = new OutputFileAllocator(dir);
+        assertEquals("MK07.csv", allocator.allocate("MK07", ".csv").getName());
+        // The file already in the directory is skipped
+        assertEquals("MK07_2.csv", allocator.allocate("MK07", ".csv").getName());
+        assertEquals("MK07_3.csv", allocator.allocate("MK07", ".csv").getName());
+        assertEquals("MK10.csv", allocator.allocate("MK10", ".csv").getName());
+
+        // A file created after the directory was listed is skipped too
+        assertTrue(new File(dir, "MK10_1.csv").createNewFile());
+        assertEquals("MK10_2.csv", allocator.allocate("MK10", ".csv").getName());
+    }
+
+    @Test
+    public void concurrentTest() throws Exception {
+        // Two allocators of the same directory, used by several threads
+        final OutputFileAllocator[] allocators = {new OutputFileAllocator(dir), new OutputFileAllocator(dir)};
+        int count = 200;
+        ExecutorService pool = Executors.newFixedThreadPool(8);
+        try {
+            ArrayList<Future<File>> futures = new ArrayList<Future<File>>();
+            for (int i = 0; i < count; i++) {
+                final OutputFileAllocator allocator = allocators[i % 2];
+                futures.add(pool.submit(new Callable<File>() {
+                    @Override
+                    public File call() throws Exception {
+                        return allocator.allocate("Linkage", ".alnk");
+                    }
+                }));
+            }
+            HashSet<String> names = new HashSet<String>();
+            for (Future<File> future : futures) {
+                File f = future.get();
+                assertTrue(f.isFile());
+                assertTrue(f.getName(), names.add(f.getName()));
+            }
+            assertTrue(names.contains("Linkage.alnk"));
+            for (int i = 1; i < count; i++) {
+                assertTrue(names.contains("Linkage_" + i + ".alnk"));
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package org.agmip.translators.csv;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class TranslationCacheTest {
+    private File dir;
+    private TranslationCache cache;
+
+    @Before
+    public void setup() throws Exception {
+        dir = java.nio.file.Files.createTempDirectory("csv-cache").toFile();
+        cache = new TranslationCache(dir, "test");
+    }
+
+    @After
+    public void cleanup() {
+        for (File file : dir.listFiles()) {
+            file.delete();
+        }
+        dir.delete();
+    }
+
+    private static TranslationCache.Entry newEntry(Object value) {
+        HashMap<String, HashMap<String, Object>> expMap = new HashMap<String, HashMap<String, Object>>();
+        HashMap<String, Object> ex = new HashMap<String, Object>();
+        ex.put("exname", "MACH0001");
+        ex.put("value", value);
+        expMap.put("1", ex);
+        ArrayList<String> orderring = new ArrayList<String>();
+        orderring.add("1");
+        HashMap<String, Integer> trtTracker = new HashMap<String, Integer>();
+        trtTracker.put("MACH0001", 2);
+        ArrayList<String[]> suffixes = new ArrayList<String[]>();
+        suffixes.add(new String[]{"1", "MACH0001", "1"});
+        return new TranslationCache.Entry(expMap, new HashMap<String, HashMap<String, Object>>(),
+                new HashMap<String, HashMap<String, Object>>(), orderring, trtTracker, suffixes, new ArrayList<String[]>());
+    }
+
+    @Test
+    public void roundTripTest() {
+        ArrayList<HashMap<String, String>> series = new ArrayList<HashMap<String, String>>();
+        series.add(new HashMap<String, String>());
+        cache.store("key", newEntry(series));
+        TranslationCache.Entry entry = cache.load("key");
+        assertNotNull(entry);
+        assertEquals(series, entry.expMap.get("1").get("value"));
+        assertEquals(Integer.valueOf(2), entry.trtTracker.get("MACH0001"));
+        assertArrayEquals(new String[]{"1", "MACH0001", "1"}, entry.exnameSuffixes.get(0));
+        assertEquals(1, cache.getHits());
+    }
+
+    @Test
+    public void classFilterTest() {
+        cache.store("key", newEntry(new Date()));
+        assertTrue(new File(dir, "key.ser.gz").isFile());
+        // An entry holding another class is not read, and is removed
+        assertNull(cache.load("key"));
+        assertFalse(new File(dir, "key.ser.gz").exists());
+        assertEquals(0, cache.getHits());
+        assertEquals(1, cache.getMisses());
+    }
+
+    @Test
+    public void unknownVersionTest() throws Exception {
+        cache.store("key", newEntry("value"));
+        // The entries of a build of an unknown version are not used
+        TranslationCache unknown = new TranslationCache(dir, null);
+        assertNull(unknown.load("key"));
+        unknown.store("other", newEntry("value"));
+        assertEquals(0, unknown.getStores());
+        assertFalse(new File(dir, "other.ser.gz").exists());
+
+        // Nor the entries of another version, which are removed as unreadable
+        assertNull(new TranslationCache(dir, "other").load("key"));
+        assertFalse(new File(dir, "key.ser.gz").exists());
+    }
+}
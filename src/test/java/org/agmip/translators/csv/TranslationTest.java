@@ -1,11 +1,20 @@
 package org.agmip.translators.csv;
 
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.net.URL;
-//import java.util.ArrayList;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.junit.Test;
 import org.junit.Before;
@@ -125,4 +134,363 @@ public class TranslationTest
         }
         LOG.info("Multi-Table test results: "+result.toString());
     }
+
+    @Test
+    public void streamingTest() throws Exception {
+        Map result = new CSVInput().readFile(zipTest.getPath());
+        final int[] counts = new int[3];
+        importer.readFile(zipTest.getPath(), new CSVInputHandler() {
+            @Override
+            public void experiment(HashMap<String, Object> experiment) {
+                counts[0]++;
+            }
+
+            @Override
+            public void weather(HashMap<String, Object> weather) {
+                counts[1]++;
+            }
+
+            @Override
+            public void soil(HashMap<String, Object> soil) {
+                counts[2]++;
+            }
+        });
+        LOG.info("Streaming test results: {} experiments, {} weathers, {} soils", counts[0], counts[1], counts[2]);
+        assertEquals(((List) result.get("experiments")).size(), counts[0]);
+        assertEquals(((List) result.get("weathers")).size(), counts[1]);
+        assertEquals(((List) result.get("soils")).size(), counts[2]);
+    }
+
+    @Test
+    public void contiguousStreamingTest() throws Exception {
+        // The rows of each entity are contiguous in these files, unlike in ref_test.csv or multiple_sections.csv
+        for (URL test : new URL[]{simpleTest, ccTest, asteriskTest, scdelimTest, multiTableTest, zipTest}) {
+            Map expected = new CSVInput().readFile(test.getPath());
+            CSVInput contiguous = new CSVInput();
+            contiguous.setContiguousRows(true);
+            assertSameResult(expected, stream(contiguous, test));
+        }
+    }
+
+    /**
+     * Read the file through a handler, collecting the entities the same way
+     * as {@link CSVInput#readFile(String)}.
+     */
+    private static Map stream(CSVInput input, URL test) throws Exception {
+        final ArrayList<HashMap<String, Object>> experiments = new ArrayList<HashMap<String, Object>>();
+        final ArrayList<HashMap<String, Object>> weathers = new ArrayList<HashMap<String, Object>>();
+        final ArrayList<HashMap<String, Object>> soils = new ArrayList<HashMap<String, Object>>();
+        input.readFile(test.getPath(), new CSVInputHandler() {
+            @Override
+            public void experiment(HashMap<String, Object> experiment) {
+                experiments.add(experiment);
+            }
+
+            @Override
+            public void weather(HashMap<String, Object> weather) {
+                weathers.add(weather);
+            }
+
+            @Override
+            public void soil(HashMap<String, Object> soil) {
+                soils.add(soil);
+            }
+        });
+        HashMap<String, Object> ret = new HashMap<String, Object>();
+        ret.put("experiments", experiments);
+        ret.put("weathers", weathers);
+        ret.put("soils", soils);
+        return ret;
+    }
+
+    @Test
+    public void memoryMappedTest() throws Exception {
+        for (URL test : new URL[]{simpleTest, ccTest, scdelimTest, multiTableTest}) {
+            Map expected = new CSVInput().readFile(test.getPath());
+            CSVInput mapped = new CSVInput();
+            mapped.setMemoryMapped(true);
+            assertEquals(expected, mapped.readFile(test.getPath()));
+        }
+    }
+
+    @Test
+    public void columnarSeriesTest() throws Exception {
+        String path = this.getClass().getResource("/Machakos_csv.zip").getPath();
+        Map expected = new CSVInput().readFile(path);
+        CSVInput columnar = new CSVInput();
+        columnar.setColumnarSeries(true);
+        Map result = columnar.readFile(path);
+        assertEquals(expected, result);
+        Map weather = (Map) ((List) result.get("weathers")).get(0);
+        assertTrue(weather.get("dailyWeather") instanceof ColumnarSeries);
+    }
+
+    @Test
+    public void stringPoolTest() throws Exception {
+        for (URL test : new URL[]{simpleTest, ccTest, multiTest, zipTest}) {
+            CSVInput unpooled = new CSVInput();
+            unpooled.setStringPoolSize(0);
+            assertEquals(unpooled.readFile(test.getPath()), new CSVInput().readFile(test.getPath()));
+        }
+    }
+
+    @Test
+    public void unknownVariablesTest() throws Exception {
+        CSVInput input = new CSVInput();
+        for (int run = 0; run < 2; run++) {
+            List<UnknownVariable> unknown = new ArrayList<UnknownVariable>();
+            input.readFile(scdelimTest.getPath(), unknown);
+            assertEquals(4, unknown.size());
+            assertEquals("a", unknown.get(0).getVariable());
+            assertEquals("", unknown.get(0).getPath());
+            assertEquals(1, unknown.get(0).getCount());
+            assertEquals("d", unknown.get(3).getVariable());
+        }
+
+        // Each translation of a shared reader gets its own
+        List<UnknownVariable> none = new ArrayList<UnknownVariable>();
+        input.readFile(simpleTest.getPath(), none);
+        assertTrue(none.isEmpty());
+        final List<UnknownVariable> streamed = new ArrayList<UnknownVariable>();
+        input.readFile(scdelimTest.getPath(), new CSVInputHandler() {
+            @Override
+            public void experiment(HashMap<String, Object> experiment) {
+            }
+
+            @Override
+            public void weather(HashMap<String, Object> weather) {
+            }
+
+            @Override
+            public void soil(HashMap<String, Object> soil) {
+            }
+        }, streamed);
+        assertEquals(4, streamed.size());
+    }
+
+    @Test
+    public void chunkTest() throws Exception {
+        for (URL test : new URL[]{ccTest, refTest, multiTest, asteriskTest, multiTableTest}) {
+            Map expected = new CSVInput().readFile(test.getPath());
+            for (long chunkSize : new long[]{1, 50, 400}) {
+                CSVInput chunked = new CSVInput();
+                chunked.setChunkSize(chunkSize);
+                chunked.setThreads(2);
+                assertEquals(expected, chunked.readFile(test.getPath()));
+            }
+        }
+    }
+
+    @Test
+    public void chunkQuoteTest() throws Exception {
+        // A quoted field over several lines, cut at each of its line breaks by some chunk size
+        String csv = "#,exname,notes,wst_id\n"
+                + "a,test_1,\"first\nsecond, \"\"quoted\"\"\nthird\",abc123\n"
+                + "b,test_2,\"one\n\ntwo\",abc132\n"
+                + "%,tmin,tmax\n"
+                + "a,1,\"1\n2\"\n"
+                + "b,3,4\n";
+        File file = writeTempFile(csv);
+        try {
+            Map expected = new CSVInput().readFile(file.getPath());
+            for (long chunkSize = 1; chunkSize <= csv.length(); chunkSize++) {
+                CSVInput chunked = new CSVInput();
+                chunked.setChunkSize(chunkSize);
+                chunked.setThreads(2);
+                assertEquals("chunk size " + chunkSize, expected, chunked.readFile(file.getPath()));
+            }
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void chunkRandomTest() throws Exception {
+        Random random = new Random(42);
+        String[] headers = {"#,exname,wst_id", "#,exname,notes", "%,tmin,tmax", "%,icbl,ich2o", "*,exname,crid"};
+        String[] keys = {"a", "b", "c", "1"};
+        String[] values = {"1", "x", "test_1", "test_2", "", "\"q\nr\"", "\"s,t\"", "\"u\r\n\nv\"", "\"\"\"w\""};
+        StringBuilder sb = new StringBuilder();
+        for (int n = 0; n < 300; n++) {
+            sb.setLength(0);
+            int lines = 1 + random.nextInt(20);
+            for (int i = 0; i < lines; i++) {
+                int r = random.nextInt(10);
+                if (r == 0) {
+                    sb.append(headers[random.nextInt(headers.length)]);
+                } else if (r == 1) {
+                    sb.append("!comment");
+                } else if (r > 2) {
+                    sb.append(keys[random.nextInt(keys.length)]);
+                    for (int j = 0; j < 2; j++) {
+                        sb.append(',').append(values[random.nextInt(values.length)]);
+                    }
+                }
+                sb.append(random.nextBoolean() ? "\n" : "\r\n");
+            }
+            File file = writeTempFile(sb.toString());
+            try {
+                Map expected = new CSVInput().readFile(file.getPath());
+                for (long chunkSize : new long[]{1, 7, 40}) {
+                    CSVInput chunked = new CSVInput();
+                    chunked.setChunkSize(chunkSize);
+                    chunked.setThreads(2);
+                    assertEquals(sb.toString(), expected, chunked.readFile(file.getPath()));
+                }
+            } finally {
+                file.delete();
+            }
+        }
+    }
+
+    private static File writeTempFile(String content) throws IOException {
+        File file = File.createTempFile("chunk", ".csv");
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(content.getBytes("UTF-8"));
+        } finally {
+            out.close();
+        }
+        return file;
+    }
+
+    @Test
+    public void metricsTest() throws Exception {
+        TranslationMetrics metrics = new TranslationMetrics();
+        CSVInput input = new CSVInput();
+        input.setMetrics(metrics);
+        input.readFile(multiTest.getPath());
+        assertEquals(1, metrics.getFilesRead());
+        assertEquals(1, metrics.getCommentLines());
+        assertEquals(4, metrics.getHeaderLines());
+        assertEquals(8, metrics.getDataLines());
+        assertEquals(1, metrics.getBlankLines());
+        assertEquals(16, metrics.getCells());
+        assertEquals(new File(multiTest.getPath()).length(), metrics.getBytesRead());
+        assertEquals(1, metrics.getReadCsvCount());
+        assertEquals(1, metrics.getCleanUpCount());
+        assertTrue(metrics.getStringPoolHits() > 0);
+        assertTrue(metrics.getStringPoolHitRate() > 0 && metrics.getStringPoolHitRate() < 1);
+
+        metrics.reset();
+        input.setStringPoolSize(0);
+        input.readFile(multiTest.getPath());
+        assertEquals(0, metrics.getStringPoolHits() + metrics.getStringPoolMisses());
+        assertTrue(metrics.getStringPoolHitRate() == 0);
+    }
+
+    @Test
+    public void sharedReaderTest() throws Exception {
+        final URL[] tests = new URL[]{simpleTest, ccTest, refTest, multiTest, asteriskTest, scdelimTest, multiTableTest, zipTest};
+        final Map[] expected = new Map[tests.length];
+        for (int i = 0; i < tests.length; i++) {
+            expected[i] = new CSVInput().readFile(tests[i].getPath());
+        }
+        final CSVInput shared = new CSVInput();
+        shared.setThreads(2);
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<Map>> results = new ArrayList<Future<Map>>();
+            for (int run = 0; run < 3; run++) {
+                for (final URL test : tests) {
+                    results.add(pool.submit(new Callable<Map>() {
+                        @Override
+                        public Map call() throws Exception {
+                            return shared.readFile(test.getPath());
+                        }
+                    }));
+                }
+            }
+            for (int i = 0; i < results.size(); i++) {
+                assertSameResult(expected[i % tests.length], results.get(i).get());
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void cacheTest() throws Exception {
+        File dir = java.nio.file.Files.createTempDirectory("csv-cache").toFile();
+        try {
+            TranslationCache cache = new TranslationCache(dir, "test");
+            for (URL test : new URL[]{multiTest, scdelimTest, zipTest}) {
+                Map expected = new CSVInput().readFile(test.getPath());
+                for (int run = 0; run < 2; run++) {
+                    CSVInput cached = new CSVInput();
+                    cached.setCache(cache);
+                    assertSameResult(expected, cached.readFile(test.getPath()));
+                }
+            }
+            assertEquals(cache.getStores(), cache.getHits());
+            assertTrue(cache.getHits() > 0);
+
+            CSVInput cached = new CSVInput();
+            cached.setCache(cache);
+            List<UnknownVariable> unknown = new ArrayList<UnknownVariable>();
+            cached.readFile(scdelimTest.getPath(), unknown);
+            assertEquals(4, unknown.size());
+            assertEquals(1, unknown.get(0).getCount());
+        } finally {
+            for (File file : dir.listFiles()) {
+                file.delete();
+            }
+            dir.delete();
+        }
+    }
+
+    @Test
+    public void entityCacheTest() throws Exception {
+        String path = this.getClass().getResource("/Machakos_csv.zip").getPath();
+        Map expected = new CSVInput().readFile(path);
+        EntityCache cache = new EntityCache(EntityCache.DEFAULT_BUDGET);
+        for (int run = 0; run < 2; run++) {
+            CSVInput cached = new CSVInput();
+            cached.setEntityCache(cache);
+            Map result = cached.readFile(path);
+            assertSameResult(expected, result);
+            HashMap weather = (HashMap) ((List) result.get("weathers")).get(0);
+            try {
+                weather.put("wst_id", "changed");
+                fail("The cached weather station can be changed");
+            } catch (UnsupportedOperationException ex) {
+            }
+            // The records keep their types unless they are stored by column
+            Object daily = weather.get("dailyWeather");
+            assertTrue(daily instanceof ArrayList && ((List) daily).get(0) instanceof HashMap);
+            try {
+                ((List) daily).remove(0);
+                fail("The cached daily weather can be changed");
+            } catch (UnsupportedOperationException ex) {
+            }
+        }
+        assertTrue(cache.getHits() > 0);
+        assertEquals(cache.size(), cache.getHits());
+        assertTrue(cache.getBytes() > 0 && cache.getBytes() <= cache.getBudget());
+
+        EntityCache small = new EntityCache(cache.getBytes() - 1);
+        CSVInput cached = new CSVInput();
+        cached.setEntityCache(small);
+        assertSameResult(expected, cached.readFile(path));
+        assertTrue(small.getEvictions() > 0);
+        assertTrue(small.getBytes() <= small.getBudget());
+
+        // The readers storing the records by column have their own entries
+        CSVInput columnar = new CSVInput();
+        columnar.setEntityCache(cache);
+        columnar.setColumnarSeries(true);
+        for (int run = 0; run < 2; run++) {
+            Map result = columnar.readFile(path);
+            assertSameResult(expected, result);
+            HashMap weather = (HashMap) ((List) result.get("weathers")).get(0);
+            assertTrue(weather.get("dailyWeather") instanceof ColumnarSeries);
+        }
+    }
+
+    private static void assertSameResult(Map expected, Map actual) {
+        // The weathers and soils are not in any given order
+        assertEquals(expected.get("experiments"), actual.get("experiments"));
+        assertEquals(new HashSet((List) expected.get("weathers")), new HashSet((List) actual.get("weathers")));
+        assertEquals(new HashSet((List) expected.get("soils")), new HashSet((List) actual.get("soils")));
+    }
 }
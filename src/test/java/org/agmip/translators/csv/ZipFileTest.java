@@ -3,8 +3,12 @@ package org.agmip.translators.csv;
 import java.io.File;
 import java.io.IOException;
 import java.net.URL;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import org.junit.Test;
 import org.junit.Before;
@@ -19,12 +23,13 @@ import org.slf4j.LoggerFactory;
 public class ZipFileTest {
     private static Logger LOG = LoggerFactory.getLogger(ZipFileTest.class);
     private CSVInput importer;
-    private URL zipTest;
+    private URL zipTest, wheatTest;
 
     @Before
     public void setup() {
         importer = new CSVInput();
         zipTest      = this.getClass().getResource("/test.zip");
+        wheatTest    = this.getClass().getResource("/wheat.zip");
     }
 
     @Test
@@ -37,4 +42,38 @@ public class ZipFileTest {
         }
         LOG.info("Zip File Test results: "+result.toString());
     }
+
+    @Test
+    public void parallelZipFileTest() throws Exception {
+        Map expected = importer.readFile(wheatTest.getPath());
+        CSVInput parallel = new CSVInput();
+        parallel.setThreads(4);
+        Map result = parallel.readFile(wheatTest.getPath());
+        assertEquals(expected.get("experiments"), result.get("experiments"));
+        assertEquals(new HashSet((List) expected.get("weathers")), new HashSet((List) result.get("weathers")));
+        assertEquals(new HashSet((List) expected.get("soils")), new HashSet((List) result.get("soils")));
+    }
+
+    @Test
+    public void parallelIdGeneratorTest() throws Exception {
+        Map expected = importer.readFile(wheatTest.getPath());
+        // A plain counter, which is only right when used by one thread
+        final Set<Thread> callers = Collections.synchronizedSet(new HashSet<Thread>());
+        CSVInput parallel = new CSVInput();
+        parallel.setThreads(4);
+        parallel.setIdGenerator(new EntityIdGenerator() {
+            private long count;
+
+            @Override
+            public String nextId() {
+                callers.add(Thread.currentThread());
+                return Long.toString(++count);
+            }
+        });
+        Map result = parallel.readFile(wheatTest.getPath());
+        assertEquals(1, callers.size());
+        assertEquals(expected.get("experiments"), result.get("experiments"));
+        assertEquals(new HashSet((List) expected.get("weathers")), new HashSet((List) result.get("weathers")));
+        assertEquals(new HashSet((List) expected.get("soils")), new HashSet((List) result.get("soils")));
+    }
 }